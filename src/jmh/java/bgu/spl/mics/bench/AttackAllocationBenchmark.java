@@ -0,0 +1,83 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.application.messages.AttackEvent;
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.Ewoks;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The life of the serials of a single attack: from the values the parser reads, to an {@link Attack},
+ * to the {@link AttackEvent} Leia sends, to acquiring and releasing its Ewoks.
+ * {@link #boxed()} keeps the serials as a list of Integers all the way, as the parser used to.
+ * {@link #primitive()} keeps them as a sorted {@code int[]}.
+ * Run it with the GC profiler to see the bytes allocated per attack in {@code gc.alloc.rate.norm}:
+ * <pre>
+ * java -jar target/benchmarks.jar AttackAllocation -prof gc
+ * </pre>
+ * Every attack needs one to four Ewoks out of a thousand, so most serials are beyond the Integer cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AttackAllocationBenchmark {
+    private static final int EWOKS = 1000;
+    private static final int ATTACKS = 1024;
+
+    private int[][] parsed;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Ewoks.getInstance().clear();
+        Ewoks.getInstance().addEwoks(EWOKS);
+        Random random = new Random(42);
+        parsed = new int[ATTACKS][];
+        for (int a = 0; a < ATTACKS; a++) {
+            parsed[a] = random.ints(1, EWOKS + 1).distinct().limit(1 + random.nextInt(4)).toArray();
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public AttackEvent boxed() {
+        int[] values = parsed[next++ & (ATTACKS - 1)];
+        List<Integer> serials = new ArrayList<>();
+        for (int value : values) {
+            serials.add(value);
+        }
+        Attack attack = new Attack(serials, 0);
+        AttackEvent event = new AttackEvent(attack.getSerials(), attack.getDuration());
+        Ewoks.getInstance().acquireAll(event.getSerials());
+        Ewoks.getInstance().releaseAll(event.getSerials());
+        return event;
+    }
+
+    @Benchmark
+    public AttackEvent primitive() {
+        int[] values = parsed[next++ & (ATTACKS - 1)];
+        Attack attack = new Attack(Arrays.copyOf(values, values.length), 0);
+        AttackEvent event = new AttackEvent(attack.getSerialArray(), attack.getDuration());
+        Ewoks.getInstance().acquireAll(event.getSerialArray());
+        Ewoks.getInstance().releaseAll(event.getSerialArray());
+        return event;
+    }
+}
@@ -0,0 +1,93 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The wake-up latency of a receiver parked in awaitMessage: sendEvent to a receiver that has nothing to do,
+ * the receiver waking up and completing the event, and the sender getting the result from its Future.
+ * Before every event we wait until the receiver parks, so every event measures a real wakeup, unlike
+ * {@link RoundTripBenchmark}, whose receiver may still be busy with the previous event.
+ * The percentiles of the samples, p50 and p99 among them, are the handoff latency.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AwaitMessageLatencyBenchmark {
+    private MessageBus bus;
+    private Thread receiverThread;
+
+    public static class WakeEvent implements Event<Boolean> {
+    }
+
+    public static class StopBroadcast implements Broadcast {
+    }
+
+    private static class Receiver extends MicroService {
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        Receiver() {
+            super("parked receiver");
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(WakeEvent.class, (WakeEvent e) -> complete(e, true));
+            subscribeBroadcast(StopBroadcast.class, (StopBroadcast b) -> terminate());
+            subscribed.countDown();
+        }
+
+        @Override
+        protected void close() {
+
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        bus = MessageBusImpl.getInstance();
+        Receiver receiver = new Receiver();
+        receiverThread = new Thread(receiver, "parked receiver");
+        receiverThread.start();
+        receiver.subscribed.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bus.sendBroadcast(new StopBroadcast());
+        receiverThread.join();
+    }
+
+    @Setup(Level.Invocation)
+    public void awaitParked() throws InterruptedException {
+        while (receiverThread.getState() != Thread.State.WAITING) {
+            Thread.sleep(0, 100_000);
+        }
+    }
+
+    @Benchmark
+    public Boolean wakeParked() {
+        return bus.sendEvent(new WakeEvent()).get();
+    }
+}
@@ -0,0 +1,103 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.ServiceRuntime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sustained broadcast throughput versus the amount of subscribers.
+ * The subscribers run as actors on a shared pool and count what they receive.
+ * A producer waits while more than {@link #MAX_IN_FLIGHT} deliveries are still queued,
+ * so the score is what the subscribers keep up with rather than how fast queues grow.
+ * Multiply the score by {@code subscribers} to get deliveries per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastFanOutBenchmark {
+    private static final long MAX_IN_FLIGHT = 1 << 20;
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    private MessageBus bus;
+    private ServiceRuntime runtime;
+    private final AtomicLong sent = new AtomicLong();
+    private final LongAdder delivered = new LongAdder();
+
+    public static class FanOutBroadcast implements Broadcast {
+    }
+
+    private class Subscriber extends MicroService {
+        private final CountDownLatch subscribed;
+
+        Subscriber(int i, CountDownLatch subscribed) {
+            super("subscriber-" + i);
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeBroadcast(FanOutBroadcast.class, (FanOutBroadcast b) -> delivered.increment());
+            subscribeBroadcast(StopBroadcast.class, (StopBroadcast b) -> terminate());
+            subscribed.countDown();
+        }
+
+        @Override
+        protected void close() {
+
+        }
+    }
+
+    public static class StopBroadcast implements Broadcast {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        bus = MessageBusImpl.getInstance();
+        runtime = ServiceRuntime.sharedExecutor(Runtime.getRuntime().availableProcessors(), 64);
+        CountDownLatch subscribed = new CountDownLatch(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            runtime.start(new Subscriber(i, subscribed));
+        }
+        subscribed.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bus.sendBroadcast(new StopBroadcast());
+        runtime.awaitTermination();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        long before = sent.getAndIncrement();
+        while (before * subscribers - delivered.sum() > MAX_IN_FLIGHT) {
+            Thread.yield();
+        }
+        bus.sendBroadcast(new FanOutBroadcast());
+    }
+}
@@ -0,0 +1,53 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.application.passiveObjects.Diary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What every attacker records in the {@link Diary} for every attack it finishes: the attack itself
+ * and the time it finished it, under its own name. Every benchmark thread is an attacker of its own,
+ * so running it with more threads shows how the recordings of the attackers contend, for example:
+ * <pre>
+ * java -jar target/benchmarks.jar Diary -t 8
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiaryBenchmark {
+    private static final AtomicInteger attackers = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Attacker {
+        private String name;
+        private long time;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            name = "Attacker" + attackers.incrementAndGet();
+            time = 0;
+        }
+    }
+
+    @Benchmark
+    public void recordAttack(Attacker attacker) {
+        Diary diary = Diary.getInstance();
+        diary.addAttack();
+        diary.setAttackerFinish(attacker.name, ++attacker.time);
+    }
+}
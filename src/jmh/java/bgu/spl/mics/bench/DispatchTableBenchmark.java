@@ -0,0 +1,142 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageTypes;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of finding where a message goes by its type, with messages of {@link #types} types in turn.
+ * A single type is what most senders and receivers of a battle see.
+ * {@link #classMaps()} does what the message-bus and the micro-services used to do for every message:
+ * a lookup by Class in a ConcurrentHashMap of routes when it is sent and another in a HashMap of
+ * callbacks when it is handled. {@link #typeIds()} does the same with the IDs of {@link MessageTypes}
+ * and arrays, and {@link #lastTypes()} looks the ID of the callback up through a {@link MessageTypes.LastType},
+ * as a micro-service does now, while the route is looked up as the message-bus does. {@link #sendAndTake()} sends a broadcast through
+ * the message-bus and takes it from the mailbox of its single subscriber, all in the benchmark thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchTableBenchmark {
+    public static class Broadcast0 implements Broadcast { }
+    public static class Broadcast1 implements Broadcast { }
+    public static class Broadcast2 implements Broadcast { }
+    public static class Broadcast3 implements Broadcast { }
+    public static class Broadcast4 implements Broadcast { }
+    public static class Broadcast5 implements Broadcast { }
+    public static class Broadcast6 implements Broadcast { }
+    public static class Broadcast7 implements Broadcast { }
+
+    private static class Idle extends MicroService {
+        Idle() {
+            super("idle");
+        }
+
+        @Override
+        protected void initialize() {
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @Param({"1", "8"})
+    public int types;
+
+    private final Message[] messages = {new Broadcast0(), new Broadcast1(), new Broadcast2(), new Broadcast3(),
+            new Broadcast4(), new Broadcast5(), new Broadcast6(), new Broadcast7()};
+    private final Map<Class<?>, Object> routeMap = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Callback<Message>> callbackMap = new HashMap<>();
+    private Object[] routeTable;
+    private Callback<Message>[] callbackTable;
+    private final MessageTypes.LastType lastType = new MessageTypes.LastType();
+    private MessageBusImpl bus;
+    private MicroService subscriber;
+    private int next;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Callback<Message> callback = m -> { };
+        int ids = 0;
+        for (Message m : messages) {
+            ids = Math.max(ids, MessageTypes.idOf(m.getClass()) + 1);
+        }
+        routeTable = new Object[ids];
+        callbackTable = new Callback[ids];
+        for (Message m : messages) {
+            routeMap.put(m.getClass(), new Object());
+            callbackMap.put(m.getClass(), callback);
+            routeTable[MessageTypes.idOf(m.getClass())] = new Object();
+            callbackTable[MessageTypes.idOf(m.getClass())] = callback;
+        }
+
+        bus = MessageBusImpl.getInstance();
+        subscriber = new Idle();
+        bus.register(subscriber);
+        for (Message m : messages) {
+            bus.subscribeBroadcast(((Broadcast) m).getClass(), subscriber);
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bus.unregister(subscriber);
+    }
+
+    @Benchmark
+    public Object classMaps() {
+        Message m = messages[next++ & (types - 1)];
+        Object route = routeMap.get(m.getClass());
+        callbackMap.get(m.getClass()).call(m);
+        return route;
+    }
+
+    @Benchmark
+    public Object typeIds() {
+        Message m = messages[next++ & (types - 1)];
+        Object route = routeTable[MessageTypes.idOf(m.getClass())];
+        callbackTable[MessageTypes.idOf(m.getClass())].call(m);
+        return route;
+    }
+
+    @Benchmark
+    public Object lastTypes() {
+        Message m = messages[next++ & (types - 1)];
+        Object route = routeTable[MessageTypes.idOf(m.getClass())];
+        callbackTable[lastType.idOf(m.getClass())].call(m);
+        return route;
+    }
+
+    @Benchmark
+    public Message sendAndTake() throws InterruptedException {
+        bus.sendBroadcast((Broadcast) messages[next++ & (types - 1)]);
+        return bus.awaitMessage(subscriber);
+    }
+}
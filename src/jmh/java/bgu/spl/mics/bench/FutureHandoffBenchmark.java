@@ -0,0 +1,81 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Future;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The cost of resolving a {@link Future} and getting its result.
+ * {@link #sameThread()} resolves and gets in the benchmark thread, measuring the Future alone.
+ * {@link #handoff(Resolver)} gives the Future to a resolver thread paired with the benchmark
+ * thread and waits in get until that thread resolves it, measuring a real cross-thread wakeup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FutureHandoffBenchmark {
+
+    @State(Scope.Thread)
+    public static class Resolver {
+        private final AtomicReference<Future<Integer>> slot = new AtomicReference<>();
+        private volatile boolean running;
+        private Thread thread;
+
+        @Setup(Level.Trial)
+        public void start() {
+            running = true;
+            thread = new Thread(() -> {
+                while (running) {
+                    Future<Integer> f = slot.getAndSet(null);
+                    if (f != null)
+                        f.resolve(1);
+                    else
+                        LockSupport.park(this);
+                }
+            }, "resolver");
+            thread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            running = false;
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+
+        void resolveLater(Future<Integer> f) {
+            slot.set(f);
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Benchmark
+    public Integer sameThread() {
+        Future<Integer> f = new Future<>();
+        f.resolve(1);
+        return f.get();
+    }
+
+    @Benchmark
+    public Integer handoff(Resolver resolver) {
+        Future<Integer> f = new Future<>();
+        resolver.resolveLater(f);
+        return f.get();
+    }
+}
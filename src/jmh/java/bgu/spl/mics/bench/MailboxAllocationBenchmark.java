@@ -0,0 +1,111 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MailboxType;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a message costs the mailbox of its receiver, in time and in memory allocated, for both types of mailbox,
+ * see {@link MailboxType}. The same broadcast is sent to a single subscriber and taken from its mailbox, so the
+ * message itself allocates nothing. Run with {@code -prof gc} to see the bytes allocated per message,
+ * {@code gc.alloc.rate.norm}: a node per message for {@link MailboxType#LINKED}, nothing for {@link MailboxType#RING}.
+ * <p>
+ * {@code sendAndTake} takes every message right after sending it, {@code burst} sends {@value #BURST} messages
+ * and only then takes them all, so that the mailbox fills up.
+ * <p>
+ * {@code register} registers a new micro-service and unregisters it, so its {@code gc.alloc.rate.norm} is what
+ * a micro-service costs before it gets any message, the mailbox included. Runtimes of 100k micro-services
+ * pay it for each of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MailboxAllocationBenchmark {
+    private static final int BURST = 256;
+
+    public static class ReusedBroadcast implements Broadcast {
+    }
+
+    private static class Idle extends MicroService {
+        Idle() {
+            super("idle");
+        }
+
+        @Override
+        protected void initialize() {
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @Param({"RING", "LINKED"})
+    public MailboxType type;
+
+    private MessageBusImpl bus;
+    private MicroService subscriber;
+    private ReusedBroadcast broadcast;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bus = MessageBusImpl.getInstance();
+        bus.setMailboxType(type);
+        subscriber = new Idle();
+        bus.register(subscriber);
+        bus.subscribeBroadcast(ReusedBroadcast.class, subscriber);
+        broadcast = new ReusedBroadcast();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bus.unregister(subscriber);
+        bus.setMailboxType(MailboxType.RING);
+    }
+
+    @Benchmark
+    public Message sendAndTake() throws InterruptedException {
+        bus.sendBroadcast(broadcast);
+        return bus.awaitMessage(subscriber);
+    }
+
+    @Benchmark
+    public void register() {
+        MicroService service = new Idle();
+        bus.register(service);
+        bus.unregister(service);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void burst(Blackhole hole) throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            bus.sendBroadcast(broadcast);
+        }
+        for (int i = 0; i < BURST; i++) {
+            hole.consume(bus.awaitMessage(subscriber));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the metrics of the message-bus, see {@link bgu.spl.mics.BusMetrics}, on the life of a single event:
+ * sending it, taking it from the mailbox of its single subscriber and completing it, all in the benchmark thread.
+ * With {@code metrics} false this is the cost every event pays for the metrics being there at all.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsOverheadBenchmark {
+    public static class MeasuredEvent implements Event<Boolean> {
+    }
+
+    private static class Idle extends MicroService {
+        Idle() {
+            super("idle");
+        }
+
+        @Override
+        protected void initialize() {
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private MessageBusImpl bus;
+    private MicroService subscriber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bus = MessageBusImpl.getInstance();
+        bus.getMetrics().reset();
+        bus.getMetrics().setEnabled(metrics);
+        subscriber = new Idle();
+        bus.register(subscriber);
+        bus.subscribeEvent(MeasuredEvent.class, subscriber);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bus.getMetrics().setEnabled(false);
+        bus.unregister(subscriber);
+    }
+
+    @Benchmark
+    public Future<Boolean> eventLife() throws InterruptedException {
+        MeasuredEvent e = new MeasuredEvent();
+        Future<Boolean> f = bus.sendEvent(e);
+        bus.complete((MeasuredEvent) bus.awaitMessage(subscriber), true);
+        return f;
+    }
+}
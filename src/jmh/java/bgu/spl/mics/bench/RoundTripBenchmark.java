@@ -0,0 +1,85 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip latency of an event: sendEvent, the receiver taking it in awaitMessage and
+ * completing it, and the sender getting the result from its Future.
+ * Every benchmark thread is a producer, all of them send to a single receiver running
+ * on its own thread.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+    private MessageBus bus;
+    private Thread receiverThread;
+
+    public static class EchoEvent implements Event<Boolean> {
+    }
+
+    public static class StopBroadcast implements Broadcast {
+    }
+
+    private static class Receiver extends MicroService {
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        Receiver() {
+            super("receiver");
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(EchoEvent.class, (EchoEvent e) -> complete(e, true));
+            subscribeBroadcast(StopBroadcast.class, (StopBroadcast b) -> terminate());
+            subscribed.countDown();
+        }
+
+        @Override
+        protected void close() {
+
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        bus = MessageBusImpl.getInstance();
+        Receiver receiver = new Receiver();
+        receiverThread = new Thread(receiver, "receiver");
+        receiverThread.start();
+        receiver.subscribed.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        bus.sendBroadcast(new StopBroadcast());
+        receiverThread.join();
+    }
+
+    @Benchmark
+    public Boolean roundTrip() {
+        return bus.sendEvent(new EchoEvent()).get();
+    }
+}
@@ -0,0 +1,201 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.ServiceRuntime;
+import bgu.spl.mics.application.Battle;
+import bgu.spl.mics.application.BattleReport;
+import bgu.spl.mics.application.passiveObjects.Attack;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the whole battle, Leia, Han Solo, C3PO, R2D2 and Lando, on synthetic inputs and reports
+ * the makespan, the attack throughput, the contention on the Ewoks and the idle time of every
+ * microservice as JSON. Each battle runs once per measurement, so this is not a JMH benchmark.
+ * Run it with:
+ * <pre>
+ * mvn -Pjmh package -DskipTests
+ * java -cp target/benchmarks.jar bgu.spl.mics.bench.ScenarioBenchmark [options]
+ * </pre>
+ * The options, all of the form {@code --name=value}, are:
+ * <ul>
+ *     <li>{@code attacks} the amount of attacks (2000), {@code ewoks} the amount of Ewoks (200).</li>
+ *     <li>{@code serials} the maximal amount of Ewoks an attack needs (3); every attack needs between
+ *     one and that many distinct Ewoks.</li>
+ *     <li>{@code hot-set} the amount of Ewoks the attacks pick from (all of them). A smaller hot set
+ *     makes more attacks need the same Ewoks.</li>
+ *     <li>{@code duration} the duration of the attacks in milliseconds: {@code zero} (the default),
+ *     {@code fixed:N}, {@code uniform:MIN:MAX} or {@code exp:MEAN}. With zero durations, and
+ *     {@code r2d2} and {@code lando} at 0 (the default), the battle measures the overhead of the
+ *     framework rather than {@code Thread.sleep}.</li>
+ *     <li>{@code attackers} the amount of attackers that handle the attacks (2).</li>
+ *     <li>{@code schedule} how Leia sends the attacks: {@code fifo} (the default) or {@code longest-first}.</li>
+ *     <li>{@code r2d2} and {@code lando} the durations of R2D2 and Lando in milliseconds (0).</li>
+ *     <li>{@code warmup} the amount of runs that are not reported (3), {@code runs} the amount of
+ *     reported runs (10), and {@code seed} the seed of the generated input (42).</li>
+ *     <li>{@code threads}, {@code pool-size} and {@code batch} choose the runtime, as for
+ *     {@link bgu.spl.mics.application.Main}.</li>
+ *     <li>{@code out} the file to write the report to (standard output).</li>
+ * </ul>
+ */
+public class ScenarioBenchmark {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int attacks = Integer.parseInt(option(args, "attacks", "2000"));
+        int ewoks = Integer.parseInt(option(args, "ewoks", "200"));
+        int serials = Integer.parseInt(option(args, "serials", "3"));
+        int hotSet = Integer.parseInt(option(args, "hot-set", String.valueOf(ewoks)));
+        String duration = option(args, "duration", "zero");
+        long r2d2 = Long.parseLong(option(args, "r2d2", "0"));
+        long lando = Long.parseLong(option(args, "lando", "0"));
+        int attackers = Integer.parseInt(option(args, "attackers", "2"));
+        String schedule = option(args, "schedule", "fifo");
+        int warmup = Integer.parseInt(option(args, "warmup", "3"));
+        int runs = Integer.parseInt(option(args, "runs", "10"));
+        long seed = Long.parseLong(option(args, "seed", "42"));
+        if (hotSet < 1 || hotSet > ewoks || serials < 1 || serials > hotSet)
+            throw new IllegalArgumentException("need 1 <= serials <= hot-set <= ewoks");
+        if (!schedule.equals("longest-first") && !schedule.equals("fifo"))
+            throw new IllegalArgumentException("Unknown --schedule value: " + schedule);
+
+        Random random = new Random(seed);
+        Battle battle = new Battle(generateAttacks(random, attacks, serials, hotSet, durations(random, duration)),
+                ewoks, r2d2, lando, attackers).withScheduling("longest-first".equals(schedule));
+
+        JsonObject config = new JsonObject();
+        config.addProperty("attacks", attacks);
+        config.addProperty("ewoks", ewoks);
+        config.addProperty("serials", serials);
+        config.addProperty("hotSet", hotSet);
+        config.addProperty("duration", duration);
+        config.addProperty("r2d2", r2d2);
+        config.addProperty("lando", lando);
+        config.addProperty("attackers", attackers);
+        config.addProperty("schedule", schedule);
+        config.addProperty("threads", option(args, "threads", "platform"));
+        config.addProperty("seed", seed);
+
+        for (int i = 0; i < warmup; i++) {
+            battle.run(createRuntime(args));
+        }
+        JsonArray reports = new JsonArray();
+        double[] makespans = new double[runs];
+        double[] throughputs = new double[runs];
+        for (int i = 0; i < runs; i++) {
+            BattleReport report = battle.run(createRuntime(args));
+            reports.add(report.toJson());
+            makespans[i] = report.getMakespanNanos() / 1e6;
+            throughputs[i] = report.getAttacksPerSecond();
+        }
+
+        JsonObject summary = new JsonObject();
+        summary.add("makespanMs", stats(makespans));
+        summary.add("attacksPerSecond", stats(throughputs));
+
+        JsonObject result = new JsonObject();
+        result.add("config", config);
+        result.add("summary", summary);
+        result.add("runs", reports);
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(result);
+        String out = option(args, "out", null);
+        if (out == null) {
+            System.out.println(json);
+        } else {
+            try (Writer writer = new FileWriter(out)) {
+                writer.write(json);
+            }
+        }
+    }
+
+    /**
+     * Every attack needs between one and {@code serials} distinct Ewoks, picked uniformly
+     * among the first {@code hotSet} Ewoks.
+     */
+    private static Attack[] generateAttacks(Random random, int attacks, int serials, int hotSet, IntSupplier duration) {
+        Attack[] generated = new Attack[attacks];
+        for (int a = 0; a < attacks; a++) {
+            int needed = 1 + random.nextInt(serials);
+            int[] picked = new int[needed];
+            for (int i = 0; i < needed; ) {
+                int serial = 1 + random.nextInt(hotSet);
+                if (!contains(picked, i, serial))
+                    picked[i++] = serial;
+            }
+            generated[a] = new Attack(picked, duration.getAsInt());
+        }
+        return generated;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value)
+                return true;
+        }
+        return false;
+    }
+
+    private static IntSupplier durations(Random random, String duration) {
+        String[] parts = duration.split(":");
+        switch (parts[0]) {
+            case "zero":
+                return () -> 0;
+            case "fixed":
+                int fixed = Integer.parseInt(parts[1]);
+                return () -> fixed;
+            case "uniform":
+                int min = Integer.parseInt(parts[1]);
+                int max = Integer.parseInt(parts[2]);
+                return () -> min + random.nextInt(max - min + 1);
+            case "exp":
+                double mean = Double.parseDouble(parts[1]);
+                return () -> (int) Math.round(-mean * Math.log(1 - random.nextDouble()));
+            default:
+                throw new IllegalArgumentException("Unknown --duration value: " + duration);
+        }
+    }
+
+    private static JsonObject stats(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        JsonObject stats = new JsonObject();
+        if (sorted.length == 0)
+            return stats;
+        stats.addProperty("min", sorted[0]);
+        stats.addProperty("median", sorted[sorted.length / 2]);
+        stats.addProperty("max", sorted[sorted.length - 1]);
+        return stats;
+    }
+
+    private static ServiceRuntime createRuntime(String[] args) {
+        String threads = option(args, "threads", "platform");
+        switch (threads) {
+            case "platform":
+                return ServiceRuntime.platformThreads();
+            case "virtual":
+                return ServiceRuntime.virtualThreads();
+            case "pool":
+                int poolSize = Integer.parseInt(option(args, "pool-size", String.valueOf(Runtime.getRuntime().availableProcessors())));
+                int batch = Integer.parseInt(option(args, "batch", "64"));
+                return ServiceRuntime.sharedExecutor(poolSize, batch);
+            default:
+                throw new IllegalArgumentException("Unknown --threads value: " + threads);
+        }
+    }
+
+    private static String option(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix))
+                return arg.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+}
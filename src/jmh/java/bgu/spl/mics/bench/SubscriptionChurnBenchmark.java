@@ -0,0 +1,103 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of a micro-service joining and leaving: register, subscribe to an event and
+ * a broadcast, and unregister, next to {@code subscribers} long-lived subscribers.
+ * {@link #churnWithTraffic()} also sends an event each time, so the subscriber array of
+ * the event is rebuilt as it would be while messages flow. The long-lived subscribers are
+ * replaced every iteration, which drops the events that piled up in their queues.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SubscriptionChurnBenchmark {
+
+    @Param({"0", "1000"})
+    public int subscribers;
+
+    private MessageBusImpl bus;
+    private MicroService[] longLived;
+
+    public static class ChurnEvent implements Event<Boolean> {
+    }
+
+    public static class ChurnBroadcast implements Broadcast {
+    }
+
+    private static class Idle extends MicroService {
+        Idle() {
+            super("idle");
+        }
+
+        @Override
+        protected void initialize() {
+
+        }
+
+        @Override
+        protected void close() {
+
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        bus = MessageBusImpl.getInstance();
+        longLived = new MicroService[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            longLived[i] = new Idle();
+            bus.register(longLived[i]);
+            bus.subscribeEvent(ChurnEvent.class, longLived[i]);
+            bus.subscribeBroadcast(ChurnBroadcast.class, longLived[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        for (MicroService m : longLived) {
+            bus.unregister(m);
+        }
+    }
+
+    @Benchmark
+    public void churn() {
+        MicroService m = new Idle();
+        bus.register(m);
+        bus.subscribeEvent(ChurnEvent.class, m);
+        bus.subscribeBroadcast(ChurnBroadcast.class, m);
+        bus.unregister(m);
+    }
+
+    @Benchmark
+    public void churnWithTraffic() {
+        MicroService m = new Idle();
+        bus.register(m);
+        bus.subscribeEvent(ChurnEvent.class, m);
+        bus.subscribeBroadcast(ChurnBroadcast.class, m);
+        bus.sendEvent(new ChurnEvent());
+        bus.unregister(m);
+    }
+}
@@ -0,0 +1,108 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.ServiceRuntime;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares running every micro-service on a platform thread, on a virtual thread, or as an
+ * actor on a shared pool with one thread per processor.
+ * For every amount of services it measures the time until all of them subscribed, the
+ * throughput of events dispatched round-robin among them, and the time until all of them
+ * terminated after a broadcast. Each configuration runs once, so this is not a JMH benchmark.
+ * Run it on Java 21 with:
+ * <pre>
+ * mvn -Pjmh package -DskipTests
+ * java -cp target/benchmarks.jar bgu.spl.mics.bench.ThreadModeBenchmark [services...]
+ * </pre>
+ * Platform threads are only tried up to 10,000 services.
+ */
+public class ThreadModeBenchmark {
+    private static final int[] DEFAULT_SERVICES = {1000, 10000, 100000};
+    private static final int PLATFORM_LIMIT = 10000;
+    private static final int EVENTS = 200000;
+
+    private static class WorkEvent implements Event<Boolean> {
+    }
+
+    private static class StopBroadcast implements Broadcast {
+    }
+
+    private static class Worker extends MicroService {
+        private final CountDownLatch subscribed;
+
+        Worker(int i, CountDownLatch subscribed) {
+            super("worker-" + i);
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(WorkEvent.class, (WorkEvent e) -> complete(e, true));
+            subscribeBroadcast(StopBroadcast.class, (StopBroadcast b) -> terminate());
+            subscribed.countDown();
+        }
+
+        @Override
+        protected void close() {
+
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int[] services = DEFAULT_SERVICES;
+        if (args.length > 0) {
+            services = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                services[i] = Integer.parseInt(args[i]);
+            }
+        }
+        run("virtual", 1000, ServiceRuntime.virtualThreads()); /*warm-up*/
+        System.out.printf("%-9s %9s %12s %15s %13s%n", "threads", "services", "startup ms", "events/sec", "shutdown ms");
+        for (int n : services) {
+            if (n <= PLATFORM_LIMIT)
+                run("platform", n, ServiceRuntime.platformThreads());
+            run("virtual", n, ServiceRuntime.virtualThreads());
+            run("pool", n, ServiceRuntime.sharedExecutor(Runtime.getRuntime().availableProcessors(), 64));
+        }
+    }
+
+    private static void run(String name, int n, ServiceRuntime runtime) throws InterruptedException {
+        MessageBus bus = MessageBusImpl.getInstance();
+        CountDownLatch subscribed = new CountDownLatch(n);
+        Worker[] workers = new Worker[n];
+        for (int i = 0; i < n; i++) {
+            workers[i] = new Worker(i, subscribed);
+        }
+
+        long start = System.nanoTime();
+        for (Worker worker : workers) {
+            runtime.start(worker);
+        }
+        subscribed.await();
+        long started = System.nanoTime();
+
+        @SuppressWarnings("unchecked")
+        Future<Boolean>[] futures = new Future[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            futures[i] = bus.sendEvent(new WorkEvent());
+        }
+        for (Future<Boolean> future : futures) {
+            future.get();
+        }
+        long dispatched = System.nanoTime();
+
+        bus.sendBroadcast(new StopBroadcast());
+        runtime.awaitTermination();
+        long stopped = System.nanoTime();
+
+        System.out.printf("%-9s %9d %12.1f %15.0f %13.1f%n", name, n, (started - start) / 1e6,
+                EVENTS * 1e9 / (dispatched - started), (stopped - dispatched) / 1e6);
+    }
+}
@@ -0,0 +1,34 @@
+package bgu.spl.mics.bench;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the message-bus benchmarks with 1, 4 and 16 benchmark threads, which act as
+ * concurrent producers. Run it with:
+ * <pre>
+ * mvn -Pjmh package -DskipTests
+ * java -cp target/benchmarks.jar bgu.spl.mics.bench.ThreadSweep [regex]
+ * </pre>
+ * The optional regex selects the benchmarks, as with {@code java -jar target/benchmarks.jar};
+ * it defaults to all the message-bus benchmarks.
+ */
+public class ThreadSweep {
+    private static final int[] THREADS = {1, 4, 16};
+    private static final String BUS_BENCHMARKS =
+            "RoundTripBenchmark|BroadcastFanOutBenchmark|FutureHandoffBenchmark|SubscriptionChurnBenchmark";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : BUS_BENCHMARKS;
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .output("target/jmh-" + threads + "-threads.txt")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
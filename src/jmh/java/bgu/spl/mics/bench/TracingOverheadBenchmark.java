@@ -0,0 +1,82 @@
+package bgu.spl.mics.bench;
+
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.Tracer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of tracing, see {@link Tracer}, on the life of a single event: sending it, taking it from the mailbox
+ * of its single subscriber and completing it, all in the benchmark thread, which records two spans per event.
+ * With {@code tracing} false this is the cost every event pays for tracing being there at all.
+ * The ring buffer is small, so the spans overwrite each other instead of growing the heap.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TracingOverheadBenchmark {
+    public static class TracedEvent implements Event<Boolean> {
+    }
+
+    private static class Idle extends MicroService {
+        Idle() {
+            super("idle");
+        }
+
+        @Override
+        protected void initialize() {
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @Param({"false", "true"})
+    public boolean tracing;
+
+    private MessageBusImpl bus;
+    private MicroService subscriber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bus = MessageBusImpl.getInstance();
+        if (tracing)
+            Tracer.start(1 << 12);
+        subscriber = new Idle();
+        bus.register(subscriber);
+        bus.subscribeEvent(TracedEvent.class, subscriber);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Tracer.stop();
+        bus.unregister(subscriber);
+    }
+
+    @Benchmark
+    public Future<Boolean> eventLife() throws InterruptedException {
+        Future<Boolean> f = bus.sendEvent(new TracedEvent());
+        bus.complete((TracedEvent) bus.awaitMessage(subscriber), true);
+        return f;
+    }
+}
@@ -0,0 +1,516 @@
+package bgu.spl.mics;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * What the {@link MessageBusImpl} measures about the messages it carries, per message type and per
+ * micro-service: how many messages were sent and delivered, how long they waited in the mailboxes
+ * from being added until being taken, how long their callbacks ran, how long the Futures of events
+ * took to be resolved, and how many messages every mailbox holds now and held at most.
+ * Every duration goes to a {@link LatencyHistogram}.
+ * <p>
+ * The metrics are off by default. While they are off, the message-bus and the micro-services only
+ * read the {@code enabled} flag once per message, and take nothing else. While they are on, a message
+ * travels in the mailbox inside a {@link Stamped} envelope that holds the time it was added, and the
+ * Future of an event is a {@link TimedFuture} that holds the time it was sent. The mailbox takes the
+ * envelope off before the micro-service sees the message.
+ * <p>
+ * The metrics are read through {@link BusMetricsMXBean}, over JMX, or dumped as text or JSON,
+ * once or periodically with {@link #startDumping(long, boolean, PrintStream)}. They are registered with
+ * JMX the first time they are turned on, or by {@link #registerMBean()}, so a run that never measures
+ * does not start the platform MBean server.
+ * <p>
+ * The metrics of a micro-service refer to it and to its mailbox only while it is registered. Once it
+ * unregisters, we keep what was measured about it by its name and let go of both.
+ */
+public class BusMetrics implements BusMetricsMXBean {
+    public static final String OBJECT_NAME = "bgu.spl.mics:type=BusMetrics";
+
+    private volatile boolean enabled;
+    private volatile boolean registered;
+    private volatile TypeMetrics[] types;
+    private final Map<MicroService, ServiceMetrics> services;
+    private final Map<String, ServiceMetrics> unregistered;
+    private final Map<String, Integer> serviceNames;
+    private ScheduledExecutorService dumper;
+
+    BusMetrics() {
+        enabled = false;
+        registered = false;
+        types = new TypeMetrics[0];
+        services = new ConcurrentHashMap<>();
+        unregistered = new ConcurrentHashMap<>();
+        serviceNames = new HashMap<>();
+        dumper = null;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under {@value #OBJECT_NAME}.
+     * Metrics that cannot be registered, for example since others already were, are only left out of JMX.
+     * We do it the first time the metrics are turned on; call it before that for a JMX client to turn them on.
+     */
+    public synchronized void registerMBean() {
+        if (registered)
+            return;
+        registered = true;
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException | SecurityException ignored) { }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Messages sent while the metrics were off are delivered without being measured,
+     * even if the metrics are turned on before they are taken.
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled && !registered)
+            registerMBean();
+        this.enabled = enabled;
+    }
+
+    @Override
+    public synchronized void reset() {
+        types = new TypeMetrics[0];
+        services.clear();
+        unregistered.clear();
+        serviceNames.clear();
+    }
+
+    /**
+     * The metrics of a single message type.
+     */
+    static final class TypeMetrics {
+        private final String name;
+        private final LongAdder sends = new LongAdder();
+        private final LongAdder deliveries = new LongAdder();
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final LatencyHistogram callbackTime = new LatencyHistogram();
+        private final LatencyHistogram resolveLatency = new LatencyHistogram();
+
+        private TypeMetrics(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * The metrics of a single micro-service. While it is registered, the depth of its mailbox is read from the
+     * mailbox itself. Once it unregisters, we let go of the mailbox and keep what it last told.
+     */
+    static final class ServiceMetrics {
+        private final String name;
+        private volatile Mailbox mailbox;
+        private final int capacity;
+        private volatile long rejected;
+        private final LongAdder deliveries = new LongAdder();
+        private final AtomicInteger highWater = new AtomicInteger();
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final LatencyHistogram callbackTime = new LatencyHistogram();
+
+        private ServiceMetrics(String name, Mailbox mailbox) {
+            this.name = name;
+            this.mailbox = mailbox;
+            capacity = mailbox.capacity();
+        }
+
+        private int depth() {
+            Mailbox current = mailbox;
+            return current == null ? 0 : current.size();
+        }
+
+        private long rejected() {
+            Mailbox current = mailbox;
+            return current == null ? rejected : current.rejected();
+        }
+    }
+
+    /**
+     * A message in a mailbox, with the time it was added.
+     */
+    static final class Stamped implements Message {
+        private final Message message;
+        private final long addedAt;
+        private final TypeMetrics type;
+        private final ServiceMetrics receiver;
+
+        private Stamped(Message message, TypeMetrics type, ServiceMetrics receiver) {
+            this.message = message;
+            this.type = type;
+            this.receiver = receiver;
+            addedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * The Future of an event sent while the metrics were on, which records how long it took to be resolved.
+     */
+    static final class TimedFuture<T> extends Future<T> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<TimedFuture> RESOLVING =
+                AtomicIntegerFieldUpdater.newUpdater(TimedFuture.class, "resolving");
+
+        private final long sentAt;
+        private final TypeMetrics type;
+        private volatile int resolving;
+
+        private TimedFuture(TypeMetrics type) {
+            this.type = type;
+            sentAt = System.nanoTime();
+        }
+
+        /**
+         * Only the call that resolves the Future records its latency. Later calls, and calls on a Future
+         * that was rejected, resolve nothing and record nothing.
+         */
+        @Override
+        public void resolve(T result) {
+            if (isDone() || !RESOLVING.compareAndSet(this, 0, 1)) {
+                super.resolve(result);
+                return;
+            }
+            long latency = System.nanoTime() - sentAt;
+            super.resolve(result);
+            if (!isRejected())
+                type.resolveLatency.record(latency);
+        }
+    }
+
+    /**
+     * Counts a message of the type of @param m as sent.
+     * @return the metrics of the type, for {@link #stamp} and {@link #timedFuture}.
+     */
+    TypeMetrics sent(Message m) {
+        TypeMetrics type = typeOf(m.getClass());
+        type.sends.increment();
+        return type;
+    }
+
+    /**
+     * @return @param m in an envelope that records when it is taken from the mailbox @param mailbox
+     *         of @param receiver. The depth of the mailbox once it is added counts towards its high-water mark.
+     */
+    Message stamp(Message m, TypeMetrics type, MicroService receiver, Mailbox mailbox) {
+        ServiceMetrics service = serviceOf(receiver, mailbox);
+        int depth = Math.min(mailbox.size() + 1, mailbox.capacity());
+        int high;
+        while (depth > (high = service.highWater.get()) && !service.highWater.compareAndSet(high, depth)) { }
+        return new Stamped(m, type, service);
+    }
+
+    /**
+     * @return a Future for an event of the type @param type, which records when it is resolved.
+     */
+    <T> Future<T> timedFuture(TypeMetrics type) {
+        return new TimedFuture<>(type);
+    }
+
+    /**
+     * Called by a mailbox for every message @param m taken from it. If the message is in an envelope,
+     * we record how long it waited and count it as delivered.
+     * @return the message itself, out of its envelope.
+     */
+    static Message taken(Message m) {
+        if (!(m instanceof Stamped))
+            return m;
+        Stamped stamped = (Stamped) m;
+        long waited = System.nanoTime() - stamped.addedAt;
+        stamped.type.deliveries.increment();
+        stamped.type.queueLatency.record(waited);
+        stamped.receiver.deliveries.increment();
+        stamped.receiver.queueLatency.record(waited);
+        return stamped.message;
+    }
+
+    /**
+     * @return the message itself, out of its envelope, without recording anything.
+     */
+    static Message strip(Message m) {
+        return m instanceof Stamped ? ((Stamped) m).message : m;
+    }
+
+    /**
+     * Called by the message-bus once @param service unregistered, after its mailbox was closed.
+     * We keep its metrics by their name and let go of the micro-service and its mailbox.
+     */
+    synchronized void unregistered(MicroService service) {
+        ServiceMetrics metrics = services.remove(service);
+        if (metrics == null)
+            return;
+        metrics.rejected = metrics.mailbox.rejected();
+        metrics.mailbox = null;
+        unregistered.put(metrics.name, metrics);
+    }
+
+    /**
+     * Records that the callback of @param service for @param m ran for @param nanos nanoseconds.
+     */
+    void handled(MicroService service, Message m, long nanos) {
+        typeOf(m.getClass()).callbackTime.record(nanos);
+        ServiceMetrics metrics = services.get(service);
+        if (metrics != null)
+            metrics.callbackTime.record(nanos);
+    }
+
+    private TypeMetrics typeOf(Class<?> type) {
+        int id = MessageTypes.idOf(type);
+        TypeMetrics metrics = MessageTypes.get(types, id);
+        return metrics != null ? metrics : addType(type, id);
+    }
+
+    private synchronized TypeMetrics addType(Class<?> type, int id) {
+        TypeMetrics[] current = MessageTypes.withSlot(types, id);
+        if (current[id] == null) {
+            current = current == types ? current.clone() : current;
+            current[id] = new TypeMetrics(type.getName());
+            types = current;
+        }
+        return current[id];
+    }
+
+    /**
+     * @return the metrics of @param service. Micro-services do not need unique names, so the metrics
+     *         of a second micro-service named {@code name} are named {@code name#2}, and so on.
+     */
+    private ServiceMetrics serviceOf(MicroService service, Mailbox mailbox) {
+        ServiceMetrics metrics = services.get(service);
+        return metrics != null ? metrics : addService(service, mailbox);
+    }
+
+    private synchronized ServiceMetrics addService(MicroService service, Mailbox mailbox) {
+        ServiceMetrics metrics = services.get(service);
+        if (metrics == null && mailbox.isClosed()) /*it is unregistering, so the message is not delivered*/
+            return new ServiceMetrics(service.getName(), mailbox);
+        if (metrics == null) {
+            int seen = serviceNames.merge(service.getName(), 1, Integer::sum);
+            metrics = new ServiceMetrics(seen == 1 ? service.getName() : service.getName() + "#" + seen, mailbox);
+            services.put(service, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * The metrics of a message type as they were when they were read.
+     */
+    public static class MessageTypeStats {
+        private final long sends;
+        private final long deliveries;
+        private final LatencyStats queueLatency;
+        private final LatencyStats callbackTime;
+        private final LatencyStats resolveLatency;
+
+        private MessageTypeStats(TypeMetrics metrics) {
+            sends = metrics.sends.sum();
+            deliveries = metrics.deliveries.sum();
+            queueLatency = metrics.queueLatency.snapshot();
+            callbackTime = metrics.callbackTime.snapshot();
+            resolveLatency = metrics.resolveLatency.snapshot();
+        }
+
+        public long getSends() {
+            return sends;
+        }
+
+        /**
+         * @return the amount of messages taken from the mailboxes, a broadcast counts once per receiver.
+         */
+        public long getDeliveries() {
+            return deliveries;
+        }
+
+        /**
+         * @return the time from adding the messages to a mailbox until taking them out of it.
+         */
+        public LatencyStats getQueueLatency() {
+            return queueLatency;
+        }
+
+        public LatencyStats getCallbackTime() {
+            return callbackTime;
+        }
+
+        /**
+         * @return the time from sending an event until its Future was resolved, empty for broadcasts.
+         */
+        public LatencyStats getResolveLatency() {
+            return resolveLatency;
+        }
+    }
+
+    /**
+     * The metrics of a micro-service as they were when they were read.
+     */
+    public static class ServiceStats {
+        private final long deliveries;
+        private final int queueDepth;
+        private final int queueCapacity;
+        private final int queueHighWater;
+        private final long rejected;
+        private final LatencyStats queueLatency;
+        private final LatencyStats callbackTime;
+
+        private ServiceStats(ServiceMetrics metrics) {
+            deliveries = metrics.deliveries.sum();
+            queueDepth = metrics.depth();
+            queueCapacity = metrics.capacity == Mailbox.UNBOUNDED ? -1 : metrics.capacity;
+            queueHighWater = metrics.highWater.get();
+            rejected = metrics.rejected();
+            queueLatency = metrics.queueLatency.snapshot();
+            callbackTime = metrics.callbackTime.snapshot();
+        }
+
+        public long getDeliveries() {
+            return deliveries;
+        }
+
+        /**
+         * @return the amount of messages waiting in the mailbox now, 0 once the micro-service unregistered.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return the largest amount of messages the mailbox held, counted as messages were added.
+         */
+        public int getQueueHighWater() {
+            return queueHighWater;
+        }
+
+        /**
+         * @return the maximal amount of messages the mailbox holds, -1 if it is unbounded.
+         */
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        /**
+         * @return the amount of messages the mailbox turned away or dropped since it was full, see {@link OverflowPolicy}.
+         *         They are counted while the metrics are off too.
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public LatencyStats getQueueLatency() {
+            return queueLatency;
+        }
+
+        public LatencyStats getCallbackTime() {
+            return callbackTime;
+        }
+    }
+
+    @Override
+    public Map<String, MessageTypeStats> getMessageTypes() {
+        Map<String, MessageTypeStats> stats = new TreeMap<>();
+        for (TypeMetrics metrics : types) {
+            if (metrics != null)
+                stats.put(metrics.name, new MessageTypeStats(metrics));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public Map<String, ServiceStats> getServices() {
+        Map<String, ServiceStats> stats = new TreeMap<>();
+        for (ServiceMetrics metrics : unregistered.values()) {
+            stats.put(metrics.name, new ServiceStats(metrics));
+        }
+        for (ServiceMetrics metrics : services.values()) {
+            stats.put(metrics.name, new ServiceStats(metrics));
+        }
+        return Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public String dumpJson() {
+        Map<String, Object> dump = new LinkedHashMap<>();
+        dump.put("messageTypes", getMessageTypes());
+        dump.put("services", getServices());
+        return new GsonBuilder().setPrettyPrinting().create().toJson(dump);
+    }
+
+    /**
+     * Every latency is given as its median, 99th percentile and maximum, in microseconds.
+     * The message types are given by the names of their classes without their packages.
+     */
+    @Override
+    public String dumpText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-40s %10s %10s %22s %22s %22s%n", "message type", "sends", "delivered",
+                "queue us p50/p99/max", "callback us", "resolve us"));
+        for (Map.Entry<String, MessageTypeStats> type : getMessageTypes().entrySet()) {
+            MessageTypeStats stats = type.getValue();
+            String name = type.getKey().substring(type.getKey().lastIndexOf('.') + 1);
+            text.append(String.format("%-40s %10d %10d %22s %22s %22s%n", name, stats.getSends(),
+                    stats.getDeliveries(), micros(stats.getQueueLatency()), micros(stats.getCallbackTime()),
+                    micros(stats.getResolveLatency())));
+        }
+        text.append(String.format("%-40s %10s %10s %10s %10s %22s %22s%n", "micro-service", "delivered", "depth",
+                "high-water", "rejected", "queue us p50/p99/max", "callback us"));
+        for (Map.Entry<String, ServiceStats> service : getServices().entrySet()) {
+            ServiceStats stats = service.getValue();
+            text.append(String.format("%-40s %10d %10d %10d %10d %22s %22s%n", service.getKey(), stats.getDeliveries(),
+                    stats.getQueueDepth(), stats.getQueueHighWater(), stats.getRejected(), micros(stats.getQueueLatency()),
+                    micros(stats.getCallbackTime())));
+        }
+        return text.toString();
+    }
+
+    private static String micros(LatencyStats stats) {
+        if (stats.getCount() == 0)
+            return "-";
+        return String.format("%d/%d/%d", stats.getP50Nanos() / 1000, stats.getP99Nanos() / 1000, stats.getMaxNanos() / 1000);
+    }
+
+    /**
+     * Turns the metrics on and prints them to @param out every @param periodMillis milliseconds, as JSON
+     * if @param json is true and as text otherwise, until {@link #stopDumping()}. The dumps are printed
+     * by a daemon thread of their own.
+     */
+    public synchronized void startDumping(long periodMillis, boolean json, PrintStream out) {
+        stopDumping();
+        setEnabled(true);
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bus-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.println(json ? dumpJson() : dumpText()),
+                periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops printing the metrics, leaving them on.
+     */
+    public synchronized void stopDumping() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package bgu.spl.mics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link BusMetrics}, registered with the platform MBean server as
+ * {@value BusMetrics#OBJECT_NAME}, so JConsole, VisualVM or any JMX client can switch the metrics on
+ * and read them while the micro-services run. It is registered once the metrics are first turned on,
+ * or by {@link BusMetrics#registerMBean()}.
+ */
+public interface BusMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the metrics of every message type sent since the last reset, by the name of its class.
+     */
+    Map<String, BusMetrics.MessageTypeStats> getMessageTypes();
+
+    /**
+     * @return the metrics of every micro-service that received messages since the last reset, by its name.
+     */
+    Map<String, BusMetrics.ServiceStats> getServices();
+
+    /**
+     * Forgets all the metrics recorded so far.
+     */
+    void reset();
+
+    /**
+     * @return the metrics as a table for people to read.
+     */
+    String dumpText();
+
+    /**
+     * @return the metrics as JSON.
+     */
+    String dumpJson();
+}
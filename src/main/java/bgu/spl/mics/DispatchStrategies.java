@@ -0,0 +1,155 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Factory methods for the {@link DispatchStrategy} implementations of the message-bus.
+ * Every call returns a new instance, since a strategy serves a single event type.
+ */
+public final class DispatchStrategies {
+
+    private DispatchStrategies() {
+    }
+
+    /**
+     * @return a strategy that hands the events to the subscribers in turns.
+     *         This is the strategy an event type uses when none was chosen.
+     */
+    public static DispatchStrategy roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * @return a strategy that hands every event to the subscriber with the lowest load.
+     *         Ties are broken in turns, so idle subscribers share the events.
+     */
+    public static DispatchStrategy leastLoaded() {
+        return new LeastLoaded();
+    }
+
+    /**
+     * @return a strategy that samples two random subscribers and hands the event to the
+     *         one with the lower load. It balances nearly as well as {@link #leastLoaded()}
+     *         while looking at two subscribers only, no matter how many there are.
+     */
+    public static DispatchStrategy powerOfTwoChoices() {
+        return new PowerOfTwoChoices();
+    }
+
+    /**
+     * Events with equal keys are handed to the same subscriber, as long as the subscribers
+     * do not change. When a subscriber leaves, only the keys it served move to others.
+     * Keys that are arrays are equal when their contents are, as for {@link Arrays#equals(int[], int[])}.
+     * <p>
+     * @param <E> The type of event the strategy serves.
+     * @param key Extracts the key of an event, for example the serials of the Ewoks it needs.
+     * @return a strategy that chooses the subscriber by the key of the event.
+     */
+    public static <E extends Event<?>> DispatchStrategy stickyByKey(Function<? super E, ?> key) {
+        return new StickyByKey<>(key);
+    }
+
+    private static class RoundRobin implements DispatchStrategy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public int select(Event<?> e, MicroService[] subscribers, ToIntFunction<MicroService> load) {
+            return Math.floorMod(next.getAndIncrement(), subscribers.length);
+        }
+
+        @Override
+        public void subscribersChanged(MicroService[] subscribers) {
+            next.set(0);
+        }
+    }
+
+    private static class LeastLoaded implements DispatchStrategy {
+        private final AtomicInteger start = new AtomicInteger();
+
+        @Override
+        public int select(Event<?> e, MicroService[] subscribers, ToIntFunction<MicroService> load) {
+            int first = Math.floorMod(start.getAndIncrement(), subscribers.length);
+            int chosen = first;
+            int lowest = load.applyAsInt(subscribers[first]);
+            for (int i = 1; i < subscribers.length && lowest > 0; i++) {
+                int candidate = (first + i) % subscribers.length;
+                int candidateLoad = load.applyAsInt(subscribers[candidate]);
+                if (candidateLoad < lowest) {
+                    chosen = candidate;
+                    lowest = candidateLoad;
+                }
+            }
+            return chosen;
+        }
+    }
+
+    private static class PowerOfTwoChoices implements DispatchStrategy {
+
+        @Override
+        public int select(Event<?> e, MicroService[] subscribers, ToIntFunction<MicroService> load) {
+            if (subscribers.length == 1)
+                return 0;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(subscribers.length);
+            int b = random.nextInt(subscribers.length - 1);
+            if (b >= a)
+                b++;
+            return load.applyAsInt(subscribers[b]) < load.applyAsInt(subscribers[a]) ? b : a;
+        }
+    }
+
+    /**
+     * Uses rendezvous hashing: every subscriber gets a score for the key,
+     * and the subscriber with the highest score is chosen.
+     */
+    private static class StickyByKey<E extends Event<?>> implements DispatchStrategy {
+        private final Function<? super E, ?> key;
+
+        private StickyByKey(Function<? super E, ?> key) {
+            this.key = key;
+        }
+
+        @Override @SuppressWarnings("unchecked")
+        public int select(Event<?> e, MicroService[] subscribers, ToIntFunction<MicroService> load) {
+            Object k = key.apply((E) e);
+            int keyHash = hash(k);
+            int chosen = 0;
+            int highest = Integer.MIN_VALUE;
+            for (int i = 0; i < subscribers.length; i++) {
+                int score = mix(keyHash * 31 + System.identityHashCode(subscribers[i]));
+                if (score > highest) {
+                    chosen = i;
+                    highest = score;
+                }
+            }
+            return chosen;
+        }
+
+        /**
+         * @return the hash code of @param k, of its contents if it is an array.
+         */
+        private static int hash(Object k) {
+            if (k == null)
+                return 0;
+            if (k instanceof int[])
+                return Arrays.hashCode((int[]) k);
+            if (k instanceof Object[])
+                return Arrays.deepHashCode((Object[]) k);
+            if (k.getClass().isArray())
+                return Arrays.deepHashCode(new Object[]{k});
+            return k.hashCode();
+        }
+
+        private static int mix(int h) {
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            return h ^ (h >>> 16);
+        }
+    }
+}
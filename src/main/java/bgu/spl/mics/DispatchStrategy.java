@@ -0,0 +1,37 @@
+package bgu.spl.mics;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * A dispatch strategy decides which of the micro-services subscribed to an
+ * {@link Event} type receives each event of that type.
+ * A strategy is chosen per event type when subscribing, see
+ * {@link MessageBusImpl#subscribeEvent(Class, MicroService, DispatchStrategy)}.
+ * Ready made strategies are available in {@link DispatchStrategies}.
+ * <p>
+ * A strategy may be called by many senders at the same time, so it must be thread-safe.
+ * A strategy instance serves a single event type, so it may keep state for that type.
+ */
+public interface DispatchStrategy {
+
+    /**
+     * Chooses the micro-service that receives {@code e}.
+     * <p>
+     * @param e           The event being sent.
+     * @param subscribers The micro-services currently subscribed to {@code e.getClass()},
+     *                    never empty. The array must not be modified.
+     * @param load        The load of a subscriber: the amount of messages waiting in its
+     *                    queue, plus one if it is currently handling a message.
+     * @return the index in {@code subscribers} of the chosen micro-service.
+     */
+    int select(Event<?> e, MicroService[] subscribers, ToIntFunction<MicroService> load);
+
+    /**
+     * Called when micro-services subscribed to or unregistered from the event type this
+     * strategy serves, before the next event of that type is dispatched to the new subscribers.
+     * <p>
+     * @param subscribers The new subscribers of the event type.
+     */
+    default void subscribersChanged(MicroService[] subscribers) {
+    }
+}
@@ -0,0 +1,62 @@
+package bgu.spl.mics;
+
+/**
+ * The micro-services subscribed to a single {@link Event} type, together with the
+ * {@link DispatchStrategy} that chooses between them.
+ * The strategy is told about the subscribers whenever a new array of them is published,
+ * see {@link SubscriberSet}.
+ */
+class EventRoute {
+	private final Class<? extends Event<?>> type;
+	private final SubscriberSet subscribers;
+	private volatile DispatchStrategy strategy;
+	private volatile boolean workStealing;
+
+	EventRoute(Class<? extends Event<?>> type, DispatchStrategy strategy) {
+		this.type = type;
+		this.strategy = strategy;
+		subscribers = new SubscriberSet(current -> this.strategy.subscribersChanged(current));
+		workStealing = false;
+	}
+
+	Class<? extends Event<?>> getType() {
+		return type;
+	}
+
+	MicroService[] getSubscribers() {
+		return subscribers.get();
+	}
+
+	DispatchStrategy getStrategy() {
+		return strategy;
+	}
+
+	void setStrategy(DispatchStrategy strategy) {
+		this.strategy = strategy;
+		strategy.subscribersChanged(subscribers.get());
+	}
+
+	/**
+	 * @return true if idle subscribers may take events of this type that are
+	 *         waiting in the mailboxes of other subscribers.
+	 */
+	boolean isWorkStealing() {
+		return workStealing;
+	}
+
+	void setWorkStealing(boolean workStealing) {
+		this.workStealing = workStealing;
+	}
+
+	boolean contains(MicroService m) {
+		return subscribers.contains(m);
+	}
+
+	void add(MicroService m) {
+		subscribers.add(m);
+	}
+
+	void remove(MicroService m) {
+		subscribers.remove(m);
+	}
+}
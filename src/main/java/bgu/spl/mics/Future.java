@@ -1,79 +1,155 @@
 package bgu.spl.mics;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * A Future object represents a promised result - an object that will
  * eventually be resolved to hold a result of some operation. The class allows
  * Retrieving the result once it is available.
- * 
+ * <p>
+ * Instead of waiting for the result, a caller may register a continuation with
+ * {@link #thenApply(Function)} or {@link #thenAccept(Consumer)}, which runs once the
+ * result is available without keeping any thread waiting for it.
+ * A Future is backed by a {@link CompletableFuture}, see {@link #toCompletableFuture()}
+ * and {@link #of(CompletionStage)} for moving between the two.
+ * <p>
+ * The Future of an event that no mailbox had room for is rejected instead of resolved, see
+ * {@link OverflowPolicy}: {@link #isRejected()} is then true, and getting its result throws.
+ *
  * Only private methods may be added to this class.
  * No public constructor is allowed except for the empty constructor.
  */
 public class Future<T> {
-	private boolean isDone;
-    private T result;
-	
+	private final CompletableFuture<T> result;
+
 	/**
 	 * This should be the the only public constructor in this class.
 	 */
 	public Future() {
-		isDone = false;
-		result = null;
+		this(new CompletableFuture<>());
 	}
-	
+
+	private Future(CompletableFuture<T> result) {
+		this.result = result;
+	}
+
 	/**
      * retrieves the result the Future object holds if it has been resolved.
      * This is a blocking method! It waits for the computation in case it has
-     * not been completed.
+     * not been completed. Being interrupted does not stop the wait, the interrupt
+     * status of the thread is kept for after the result is returned.
      * <p>
      * @return return the result of type T if it is available, if not wait until it is available.
+     * @throws java.util.concurrent.CompletionException holding the cause if this Future was rejected.
      */
-	public synchronized T get() {
-		while(!isDone){
-			try {
-				wait();
-			} catch (InterruptedException e) {	}
-		}
-		return result;
+	public T get() {
+		return result.join();
 	}
-	
+
 	/**
      * Resolves the result of this Future object.
+     * Only the first call resolves the result, later calls have no effect.
+     * Continuations that were waiting for the result run in the calling thread.
      */
-	public synchronized void resolve (T result) {
-		isDone = true;
-		this.result = result;
-		notifyAll();
+	public void resolve (T result) {
+		this.result.complete(result);
 	}
-	
+
 	/**
      * @return true if this object has been resolved, false otherwise
      */
 	public boolean isDone() {
-		return isDone;
+		return result.isDone();
 	}
-	
+
+	/**
+	 * @return true if this Future was rejected, which also makes it done.
+	 */
+	public boolean isRejected() {
+		return result.isCompletedExceptionally();
+	}
+
+	/**
+	 * Rejects this Future with @param cause, unless it was already resolved.
+	 * Continuations registered with {@link #thenApply(Function)} or {@link #thenAccept(Consumer)} do not run,
+	 * and the Futures they returned are rejected as well.
+	 */
+	void reject(Throwable cause) {
+		result.completeExceptionally(cause);
+	}
+
 	/**
      * retrieves the result the Future object holds if it has been resolved,
      * This method is non-blocking, it has a limited amount of time determined
-     * by {@code timeout}
+     * by {@code timeout}. It returns as soon as the result is resolved.
      * <p>
      * @param timeout 	the maximal amount of time units to wait for the result.
      * @param unit		the {@link TimeUnit} time units to wait.
-     * @return return the result of type T if it is available, if not, 
+     * @return return the result of type T if it is available, if not,
      * 	       wait for {@code timeout} TimeUnits {@code unit}. If time has
      *         elapsed, return null.
      */
-	public synchronized T get(long timeout, TimeUnit unit) {
-		if(!isDone){
-			try {
-				unit.sleep(timeout);
-			} catch (InterruptedException e) { }
-			if(!isDone)
-				return null;
+	public T get(long timeout, TimeUnit unit) {
+		try {
+			return result.get(timeout, unit);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return result.getNow(null);
+		} catch (ExecutionException e) {
+			throw new CompletionException(e.getCause());
 		}
-		return result;
 	}
 
+	/**
+	 * Returns a new Future that is resolved with the value of {@code fn} applied to the
+	 * result of this Future. {@code fn} runs in the thread that resolves this Future, or in
+	 * the calling thread if this Future is already resolved.
+	 * <p>
+	 * @param <U>	The type of the result of the returned Future.
+	 * @param fn	The function to apply to the result.
+	 * @return a Future holding the result of {@code fn}.
+	 */
+	public <U> Future<U> thenApply(Function<? super T, ? extends U> fn) {
+		return new Future<>(result.thenApply(fn));
+	}
+
+	/**
+	 * Calls {@code action} with the result of this Future once it is resolved. {@code action}
+	 * runs in the thread that resolves this Future, or in the calling thread if this Future
+	 * is already resolved. Like {@link CompletableFuture#thenAccept(Consumer)}, it does not run
+	 * if this Future is rejected.
+	 * <p>
+	 * @param action	The action to call with the result.
+	 * @return a Future that is resolved with null after {@code action} was called, or rejected
+	 *         if this Future is.
+	 */
+	public Future<Void> thenAccept(Consumer<? super T> action) {
+		return new Future<>(result.thenAccept(action));
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} that is completed with the result of this Future.
+	 *         Completing the returned object does not resolve this Future.
+	 */
+	public CompletableFuture<T> toCompletableFuture() {
+		return result.thenApply(Function.identity());
+	}
+
+	/**
+	 * @param <T>	The type of the result.
+	 * @param stage	The stage whose result the returned Future will hold.
+	 * @return a Future that is resolved once {@code stage} completes normally.
+	 */
+	public static <T> Future<T> of(CompletionStage<T> stage) {
+		return new Future<>(stage.toCompletableFuture().thenApply(Function.identity()));
+	}
 }
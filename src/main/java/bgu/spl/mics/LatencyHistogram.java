@@ -0,0 +1,103 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with log-linear buckets in the manner of HdrHistogram:
+ * every power of two is split into {@value #SUB_BUCKETS} buckets of equal width, so a bucket is at
+ * most 1/{@value #SUB_BUCKETS} of the values it holds wide, and every duration up to the largest
+ * long has a bucket. The whole range takes under two thousand buckets.
+ * <p>
+ * Recording takes no lock: it increments a single bucket, so any amount of threads may record at once.
+ * Reading while others record sees some of the recordings in flight and not others.
+ */
+class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (63 - SUB_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final LongAdder total;
+	private final AtomicLong max;
+
+	LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		total = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records a single duration of @param nanos nanoseconds, negative durations count as 0.
+	 */
+	void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		total.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		max.set(0);
+	}
+
+	/**
+	 * @return the count, the mean, a few percentiles and the maximum of the durations recorded so far.
+	 *         A percentile is the largest value of its bucket, but never more than the maximum.
+	 */
+	LatencyStats snapshot() {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		long highest = max.get();
+		double mean = count == 0 ? 0 : total.sum() / (double) count;
+		return new LatencyStats(count, mean, percentile(snapshot, count, 0.5, highest),
+				percentile(snapshot, count, 0.9, highest), percentile(snapshot, count, 0.99, highest),
+				percentile(snapshot, count, 0.999, highest), highest);
+	}
+
+	private static long percentile(long[] counts, long count, double fraction, long max) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestIn(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Values below 2 * {@value #SUB_BUCKETS} have a bucket each. Above, a value whose highest set bit
+	 * is bit {@code e} goes to the bucket of its {@code SUB_BITS + 1} highest bits, after the buckets of
+	 * the smaller powers of two.
+	 */
+	static int bucket(long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift << SUB_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return the largest value that goes to bucket @param bucket.
+	 */
+	static long highestIn(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = (bucket >>> SUB_BITS) - 1;
+		long lowest = (long) (bucket - (shift << SUB_BITS)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,41 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+
+/**
+ * A {@link MessageQueue} that is a {@link ConcurrentLinkedQueue}, which allocates a node for every message.
+ * See {@link MailboxType#LINKED}.
+ */
+class LinkedMessageQueue implements MessageQueue {
+	private final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>();
+
+	@Override
+	public void add(Message m) {
+		messages.add(m);
+	}
+
+	@Override
+	public Message poll() {
+		return messages.poll();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
+	@Override
+	public boolean remove(Message m) {
+		return messages.remove(m);
+	}
+
+	@Override
+	public Message removeFirst(Predicate<Message> matches) {
+		for (Message m : messages) {
+			if (matches.test(m) && messages.remove(m))
+				return m;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,419 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The message queue allocated to a single {@link MicroService} by the {@link MessageBusImpl}.
+ * Senders add messages without taking any lock, and the owner parks until a message
+ * is handed to it. Adding a message unparks the owner only if it is actually parked,
+ * so a send never wakes any other micro-service and an idle owner never wakes up
+ * on its own.
+ * <p>
+ * A mailbox has a single consumer: only one thread may call {@link #take()} at a time.
+ * The messages are kept in a {@link MessageQueue} of the {@link MailboxType} the mailbox was created with.
+ * <p>
+ * A mailbox of a micro-service that has no thread of its own (see {@link SharedExecutorRuntime})
+ * is created with an {@code onMessage} action instead. Adding a message runs that action,
+ * which schedules the owner, and the owner takes messages with {@link #poll()}.
+ * <p>
+ * While the {@link BusMetrics} are on, messages are added in envelopes, which every way of taking
+ * a message out of the mailbox removes, see {@link BusMetrics#taken(Message)}.
+ * <p>
+ * A mailbox may be bounded: it then holds at most {@code capacity} waiting messages, and a message
+ * added to it while it is full is handled as its {@link OverflowPolicy} says. A sender reserves its
+ * room by increasing the size before adding the message, so the size never goes over the capacity.
+ * Senders that wait for room wait in line, and every message taken out wakes one of them.
+ * An unbounded mailbox does none of this.
+ */
+class Mailbox {
+	static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	/**
+	 * What became of a message added to the mailbox.
+	 */
+	enum Result { ADDED, CLOSED, FULL }
+
+	private final MessageQueue messages;
+	private final AtomicInteger size;
+	private final Runnable onMessage;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ConcurrentLinkedQueue<Thread> blockedSenders;
+	private final LongAdder rejected;
+	private Thread owner;
+	private volatile Thread waiter;
+	private volatile boolean busy;
+	private volatile boolean closed;
+
+	Mailbox() {
+		this(null);
+	}
+
+	Mailbox(Runnable onMessage) {
+		this(onMessage, UNBOUNDED, OverflowPolicy.BLOCK, MailboxType.RING);
+	}
+
+	/**
+	 * @param onMessage the action adding a message runs, or null for a mailbox whose owner takes messages with {@link #take()}.
+	 * @param capacity  the maximal amount of waiting messages, or {@link #UNBOUNDED}.
+	 * @param policy    what to do with a message added while the mailbox is full.
+	 * @param type      how the mailbox keeps its messages.
+	 */
+	Mailbox(Runnable onMessage, int capacity, OverflowPolicy policy, MailboxType type) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity of a mailbox must be positive: " + capacity);
+		if (type == MailboxType.LINKED)
+			messages = new LinkedMessageQueue();
+		else
+			messages = new RingMessageQueue(capacity);
+		size = new AtomicInteger(0);
+		this.onMessage = onMessage;
+		this.capacity = capacity;
+		this.policy = policy;
+		blockedSenders = new ConcurrentLinkedQueue<>();
+		rejected = new LongAdder();
+		owner = null;
+		waiter = null;
+		busy = false;
+		closed = false;
+	}
+
+	/**
+	 * Adds @param m to the end of the mailbox and unparks the owner if it is waiting,
+	 * or runs the {@code onMessage} action of the mailbox if it has one.
+	 * If the mailbox was closed, the message is taken back out, unless {@link #close()}
+	 * already drained it. If the mailbox is full, we do as its {@link OverflowPolicy} says,
+	 * except that we leave routing the message to the message-bus.
+	 * @return whether the message was added, or not since the mailbox is closed or full.
+	 */
+	Result add(Message m) {
+		return add(m, true);
+	}
+
+	/**
+	 * Like {@link #add(Message)}, but a full mailbox turns @param m away at once, whatever its policy.
+	 */
+	Result offer(Message m) {
+		return add(m, false);
+	}
+
+	private Result add(Message m, boolean overflow) {
+		if (capacity == UNBOUNDED)
+			size.incrementAndGet();
+		else if (!reserve()) {
+			Result room = overflow ? overflow(m) : Result.FULL;
+			if (room != Result.ADDED)
+				return room;
+		}
+		messages.add(m);
+		if (closed && messages.remove(m)) {
+			size.decrementAndGet();
+			return Result.CLOSED;
+		}
+		if (onMessage != null) {
+			onMessage.run();
+			return Result.ADDED;
+		}
+		Thread w = waiter;
+		if (w != null)
+			LockSupport.unpark(w);
+		return Result.ADDED;
+	}
+
+	/**
+	 * Takes room for a single message, unless the mailbox is full.
+	 */
+	private boolean reserve() {
+		for (;;) {
+			int current = size.get();
+			if (current >= capacity)
+				return false;
+			if (size.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Makes room for @param m in the full mailbox as its policy says.
+	 * @return ADDED once there is room reserved for the message, CLOSED if the mailbox was closed
+	 *         while we waited for room, or FULL if the message is turned away.
+	 */
+	private Result overflow(Message m) {
+		if (policy == OverflowPolicy.BLOCK && Thread.currentThread() != owner) {
+			Room room = new Room();
+			try {
+				ForkJoinPool.managedBlock(room);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (room.reserved)
+				return Result.ADDED;
+			if (closed)
+				return Result.CLOSED;
+		}
+		/*the room of a dropped broadcast is handed to m as it is, without changing the size*/
+		if (policy == OverflowPolicy.DROP_OLDEST && BusMetrics.strip(m) instanceof Broadcast
+				&& messages.removeFirst(waiting -> BusMetrics.strip(waiting) instanceof Broadcast) != null) {
+			rejected.increment();
+			return Result.ADDED;
+		}
+		rejected.increment();
+		return Result.FULL;
+	}
+
+	/**
+	 * Waits in line for room in the mailbox. A sender adds itself to the line before it looks for room,
+	 * and whoever takes a message out makes room before it wakes the first sender in the line, so either
+	 * the sender sees the room or it is woken. A sender that was woken, but leaves without the room,
+	 * passes the wakeup on to the next one.
+	 */
+	private final class Room implements ForkJoinPool.ManagedBlocker {
+		private boolean reserved = false;
+
+		@Override
+		public boolean isReleasable() {
+			if (!reserved && !closed)
+				reserved = reserve();
+			return reserved || closed;
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			Thread sender = Thread.currentThread();
+			for (;;) {
+				blockedSenders.add(sender);
+				boolean released = isReleasable();
+				boolean interrupted = !released && Thread.interrupted();
+				if (released || interrupted) {
+					if (!blockedSenders.remove(sender))
+						wakeSenders(1);
+					if (interrupted)
+						throw new InterruptedException();
+					return true;
+				}
+				LockSupport.park(this);
+				blockedSenders.remove(sender);
+			}
+		}
+	}
+
+	/**
+	 * Wakes up to @param amount senders waiting for room, after that amount of messages was taken out.
+	 */
+	private void wakeSenders(int amount) {
+		for (int i = 0; i < amount; i++) {
+			Thread sender = blockedSenders.poll();
+			if (sender == null)
+				return;
+			LockSupport.unpark(sender);
+		}
+	}
+
+	/**
+	 * Called after @param amount messages were taken out of the mailbox.
+	 */
+	private void taken(int amount) {
+		size.addAndGet(-amount);
+		if (capacity != UNBOUNDED)
+			wakeSenders(amount);
+	}
+
+	/**
+	 * Removes the first message in the mailbox without waiting.
+	 * The owner counts as busy until it calls {@link #idle()}.
+	 * @return the first message in the mailbox, null if it is empty.
+	 */
+	Message poll() {
+		Message m = messages.poll();
+		if (m != null) {
+			taken(1);
+			busy = true;
+			owner = Thread.currentThread();
+		}
+		return m == null ? null : BusMetrics.taken(m);
+	}
+
+	/**
+	 * Marks the owner as no longer handling a message it took with {@link #poll()}.
+	 */
+	void idle() {
+		busy = false;
+		owner = null;
+	}
+
+	boolean isEmpty() {
+		return messages.isEmpty();
+	}
+
+	/**
+	 * Removes the first message in the mailbox, parking until one is available.
+	 * The owner publishes itself as the waiter before checking the queue again,
+	 * so a message added concurrently is either seen by that check or unparks it.
+	 * The owner counts as busy from the moment it takes a message until it asks for the next one.
+	 * @return the first message in the mailbox.
+	 * @throws InterruptedException if interrupted while waiting for a message.
+	 */
+	Message take() throws InterruptedException {
+		return take(null);
+	}
+
+	/**
+	 * Like {@link #take()}, but when the mailbox is empty, the owner first asks @param steal
+	 * for a message taken from another mailbox, and parks only if it gets none.
+	 * It asks after publishing itself as the waiter, so whoever adds a message that may be
+	 * stolen and then calls {@link #wakeIfParked()} never misses it.
+	 */
+	Message take(Supplier<Message> steal) throws InterruptedException {
+		busy = false;
+		owner = Thread.currentThread();
+		for (;;) {
+			Message m = messages.poll();
+			if (m != null) {
+				taken(1);
+				busy = true;
+				return BusMetrics.taken(m);
+			}
+			Message stolen = awaitMessage(steal);
+			if (stolen != null) {
+				busy = true;
+				return stolen;
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #take(Supplier)}, but removes as many of the waiting messages as fit in
+	 * @param into at once, and updates the size of the mailbox once for all of them.
+	 * @return the amount of messages placed at the start of @param into, at least one.
+	 */
+	int take(Message[] into, Supplier<Message> steal) throws InterruptedException {
+		busy = false;
+		owner = Thread.currentThread();
+		for (;;) {
+			int taken = 0;
+			Message m;
+			while (taken < into.length && (m = messages.poll()) != null) {
+				into[taken++] = BusMetrics.taken(m);
+			}
+			if (taken > 0) {
+				taken(taken);
+				busy = true;
+				return taken;
+			}
+			Message stolen = awaitMessage(steal);
+			if (stolen != null) {
+				into[0] = stolen;
+				busy = true;
+				return 1;
+			}
+		}
+	}
+
+	/**
+	 * Parks until the mailbox is not empty, or until @param steal provides a message.
+	 * @return the stolen message, or null once the mailbox is not empty.
+	 */
+	private Message awaitMessage(Supplier<Message> steal) throws InterruptedException {
+		waiter = Thread.currentThread();
+		try {
+			while (messages.isEmpty()) {
+				Message stolen = steal == null ? null : steal.get();
+				if (stolen != null)
+					return stolen;
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				LockSupport.park(this);
+			}
+			return null;
+		} finally {
+			waiter = null;
+		}
+	}
+
+	/**
+	 * Removes the first message of class @param type waiting in the mailbox, on behalf of
+	 * another micro-service. The owner and other thieves never get the same message,
+	 * since only one of them manages to remove it from the queue.
+	 * @return the removed message, null if there is no such message.
+	 */
+	Message steal(Class<?> type) {
+		Message m = messages.removeFirst(waiting -> BusMetrics.strip(waiting).getClass() == type);
+		if (m == null)
+			return null;
+		taken(1);
+		return BusMetrics.taken(m);
+	}
+
+	/**
+	 * Unparks the owner if it is currently parked waiting for a message.
+	 * @return true if the owner was parked.
+	 */
+	boolean wakeIfParked() {
+		Thread w = waiter;
+		if (w == null)
+			return false;
+		LockSupport.unpark(w);
+		return true;
+	}
+
+	/**
+	 * Closes the mailbox, so no more messages can be added to it, and wakes every sender waiting for room.
+	 * Like taking, it is done by the owner, or while the owner takes no messages.
+	 * @return the messages that were still waiting in the mailbox.
+	 */
+	List<Message> close() {
+		closed = true;
+		List<Message> left = new ArrayList<>();
+		Message m;
+		while ((m = messages.poll()) != null) {
+			size.decrementAndGet();
+			left.add(BusMetrics.strip(m));
+		}
+		wakeSenders(Integer.MAX_VALUE);
+		return left;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the amount of messages currently waiting in the mailbox.
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return the maximal amount of waiting messages, {@link #UNBOUNDED} if there is none.
+	 */
+	int capacity() {
+		return capacity;
+	}
+
+	OverflowPolicy policy() {
+		return policy;
+	}
+
+	/**
+	 * @return the amount of messages turned away or dropped since the mailbox was full.
+	 */
+	long rejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return the amount of messages waiting in the mailbox, plus one if the owner
+	 *         is currently handling a message it took.
+	 */
+	int load() {
+		return size.get() + (busy ? 1 : 0);
+	}
+}
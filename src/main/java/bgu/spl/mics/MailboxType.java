@@ -0,0 +1,19 @@
+package bgu.spl.mics;
+
+/**
+ * How the mailboxes of the micro-services keep their messages, see {@link MessageBusImpl#setMailboxType(MailboxType)}.
+ * Both keep the messages in the order they were added, and behave the same in every other way.
+ */
+public enum MailboxType {
+    /**
+     * An array used as a ring, which many threads add to and only the owner polls. Adding a message allocates
+     * nothing while the ring has room. The ring starts small, and a mailbox whose ring is full links a larger
+     * one behind it. The default.
+     */
+    RING,
+
+    /**
+     * A {@link java.util.concurrent.ConcurrentLinkedQueue}, which allocates a node for every message added.
+     */
+    LINKED
+}
@@ -1,31 +1,69 @@
 package bgu.spl.mics;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The {@link MessageBusImpl class is the implementation of the MessageBus interface.
  * Write your implementation here!
- * Only private fields and methods can be added to this class.
+ * Besides the methods of {@link MessageBus}, this class has public methods that configure the
+ * message-bus and report on it: the mailbox type, the metrics, dispatch strategies, subclass routing,
+ * work stealing and queue depths. Its package-private methods serve the {@link MicroService} and the
+ * {@link ServiceRuntime} implementations, which take messages in batches and register mailboxes that
+ * report new messages. Any other field or method added to this class is private.
+ * <p>
+ * The routes of events and the subscribers of broadcasts are kept in arrays indexed by the ID
+ * of their message type, see {@link MessageTypes}. Senders read the arrays without a lock, and
+ * subscribing to a new type publishes a new array.
  */
 public class MessageBusImpl implements MessageBus {
-	private ConcurrentHashMap<Class<? extends Event>, ConcurrentLinkedQueue<MicroService>> eventMap;
-	private ConcurrentHashMap<Class<? extends Broadcast>, List<MicroService>> broadcastMap;
-	private ConcurrentHashMap<MicroService, ConcurrentLinkedQueue<Message>> microserviceMessageQueue;
-	private ConcurrentHashMap<Event, Future> eventFutureObjects;
+	private volatile EventRoute[] eventRoutes;
+	private volatile SubscriberSet[] broadcastRoutes;
+	private final Set<Class<? extends Message>> subclassRouted;
+	private volatile boolean subclassRouting;
+	private ConcurrentHashMap<MicroService, Mailbox> microserviceMessageQueue;
+	private ConcurrentHashMap<EventKey, Future> eventFutureObjects;
+	private volatile boolean workStealing;
+	private volatile MailboxType mailboxType;
+	private final BusMetrics metrics;
+
+	/**
+	 * Identifies a sent event by its identity rather than by its equals/hashCode,
+	 * so two distinct events that happen to be equal never share a Future.
+	 */
+	private static final class EventKey {
+		private final Event<?> event;
+
+		private EventKey(Event<?> event) {
+			this.event = event;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof EventKey && ((EventKey) o).event == event;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(event);
+		}
+	}
 
 	private static class SingletonHolder {
 		private static MessageBusImpl instance = new MessageBusImpl();
 	}
 
 	private MessageBusImpl(){
-		eventMap = new ConcurrentHashMap<>();
-		broadcastMap = new ConcurrentHashMap<>();
+		eventRoutes = new EventRoute[0];
+		broadcastRoutes = new SubscriberSet[0];
+		subclassRouted = ConcurrentHashMap.newKeySet();
+		subclassRouting = false;
 		microserviceMessageQueue = new ConcurrentHashMap<>();
 		eventFutureObjects= new ConcurrentHashMap<>();
+		workStealing = false;
+		mailboxType = MailboxType.RING;
+		metrics = new BusMetrics();
 	}
 
 	public static MessageBusImpl getInstance(){
@@ -33,133 +71,417 @@ public class MessageBusImpl implements MessageBus {
 	}
 
 	/**
-	 * We add the a microservice @param m to the queue of
+	 * Makes the mailboxes of the microservices that register from now on keep their messages as @param type says,
+	 * see {@link MailboxType}. Mailboxes that already exist keep theirs. {@link MailboxType#RING} by default.
+	 */
+	public void setMailboxType(MailboxType type) {
+		if (type == null)
+			throw new IllegalArgumentException("A mailbox type is needed");
+		mailboxType = type;
+	}
+
+	public MailboxType getMailboxType() {
+		return mailboxType;
+	}
+
+	/**
+	 * @return the metrics of the messages this message-bus carries, which are off until enabled.
+	 */
+	public BusMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * We add the a microservice @param m to the route of
 	 * events of type @param type.
+	 * The events of a type that no one chose a strategy for are dispatched in a round-robin fashion.
 	 * @param type The type to subscribe to,
 	 * @param m    The subscribing micro-service.
 	 * @param <T>
 	 */
 	@Override
 	public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
-		synchronized (this) {
-			if (eventMap.get(type) == null) {
-				eventMap.put(type, new ConcurrentLinkedQueue<>());
+		routeOf(type).add(m);
+	}
+
+	/**
+	 * We add the a microservice @param m to the route of events of type @param type,
+	 * and from now on dispatch the events of that type using @param strategy.
+	 * The strategy replaces the one chosen by earlier subscriptions to @param type.
+	 * @param type     The type to subscribe to,
+	 * @param m        The subscribing micro-service.
+	 * @param strategy The strategy that chooses which subscriber receives each event.
+	 * @param <T>
+	 */
+	public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m, DispatchStrategy strategy) {
+		EventRoute route = routeOf(type);
+		route.setStrategy(strategy);
+		route.add(m);
+	}
+
+	private EventRoute routeOf(Class<? extends Event<?>> type) {
+		int id = MessageTypes.idOf(type);
+		EventRoute route = MessageTypes.get(eventRoutes, id);
+		return route != null ? route : addRoute(type, id);
+	}
+
+	private synchronized EventRoute addRoute(Class<? extends Event<?>> type, int id) {
+		EventRoute[] routes = MessageTypes.withSlot(eventRoutes, id);
+		if (routes[id] == null) {
+			routes = routes == eventRoutes ? routes.clone() : routes;
+			routes[id] = new EventRoute(type, DispatchStrategies.roundRobin());
+			eventRoutes = routes;
+		}
+		return routes[id];
+	}
+
+	private synchronized SubscriberSet subscribersOf(Class<? extends Broadcast> type) {
+		int id = MessageTypes.idOf(type);
+		SubscriberSet[] routes = MessageTypes.withSlot(broadcastRoutes, id);
+		if (routes[id] == null) {
+			routes = routes == broadcastRoutes ? routes.clone() : routes;
+			routes[id] = new SubscriberSet(null);
+			broadcastRoutes = routes;
+		}
+		return routes[id];
+	}
+
+	/**
+	 * Lets the subscribers of @param type receive the messages of its subclasses as well,
+	 * as long as no one subscribed to the subclass itself. A message goes to the subscribers
+	 * of its nearest superclass that allows it. Off by default: a message that no one
+	 * subscribed to its own class is not received by anyone.
+	 * Subclass events are never moved by work stealing, which only takes events of the
+	 * type of the route, see {@link #setWorkStealing(Class, boolean)}.
+	 * @param type    The type whose subscribers receive the messages of its subclasses.
+	 * @param enabled Whether they receive them.
+	 */
+	public void setSubclassRouting(Class<? extends Message> type, boolean enabled) {
+		if (enabled) {
+			subclassRouted.add(type);
+			subclassRouting = true;
+		} else {
+			subclassRouted.remove(type);
+		}
+	}
+
+	/**
+	 * @return true if the subscribers of @param type receive the messages of its subclasses,
+	 *         see {@link #setSubclassRouting(Class, boolean)}.
+	 */
+	boolean routesSubclasses(Class<?> type) {
+		return subclassRouting && subclassRouted.contains(type);
+	}
+
+	/**
+	 * @return the route in @param routes of the messages of class @param type, or, with subclass routing,
+	 *         of its nearest superclass that allows it. Null if there is none.
+	 */
+	private <R> R routeIn(R[] routes, Class<?> type) {
+		R route = MessageTypes.get(routes, MessageTypes.idOf(type));
+		if (route != null || !subclassRouting)
+			return route;
+		for (Class<?> c = type.getSuperclass(); c != null && c != Object.class; c = c.getSuperclass()) {
+			if (routesSubclasses(c)) {
+				route = MessageTypes.get(routes, MessageTypes.idOf(c));
+				if (route != null)
+					return route;
 			}
 		}
-		eventMap.get(type).add(m);
+		return null;
+	}
+
+	/**
+	 * Lets the microservices subscribed to events of type @param type take such events
+	 * from each other's mailboxes. A subscriber with an empty mailbox then takes an event
+	 * that is still waiting in the mailbox of a busy subscriber instead of staying idle.
+	 * Only events that were not taken by their receiver yet are moved, and broadcasts
+	 * are never moved, so the order in which a mailbox receives broadcasts is kept.
+	 * @param type    The type of events that may be moved between subscribers.
+	 * @param enabled Whether events of type @param type may be moved.
+	 */
+	public void setWorkStealing(Class<? extends Event<?>> type, boolean enabled) {
+		routeOf(type).setWorkStealing(enabled);
+		if (enabled)
+			workStealing = true;
 	}
 
 	/**
-	 * We add the a microservice @param m to the queue of
+	 * We add the a microservice @param m to the subscribers of
 	 * broadcasts of type @param type.
+	 * Senders see the subscribers of a type as an array that is never changed once
+	 * published, see {@link SubscriberSet}.
 	 * @param type 	The type to subscribe to.
 	 * @param m    	The subscribing micro-service.
 	 */
 	@Override
 	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
-		synchronized (this) {
-			if(broadcastMap.get(type) == null){
-				broadcastMap.put(type, new ArrayList<>());
-			}
-			broadcastMap.get(type).add(m);
-		}
+		subscribersOf(type).add(m);
 	}
 
 	/**
 	 * If the event exists in the event-future hashmap (eventFutureObjects)
-	 * we resolve the future object.
+	 * we remove it from there and resolve the future object, so the hashmap
+	 * only ever holds the futures of events that are still in flight.
 	 * @param e      The completed event.
 	 * @param result The resolved result of the completed event.
 	 * @param <T>
 	 */
 	@Override @SuppressWarnings("unchecked")
 	public <T> void complete(Event<T> e, T result) {
-		if(eventFutureObjects.get(e) != null)
-			eventFutureObjects.get(e).resolve(result);
+		Future<T> f = eventFutureObjects.remove(new EventKey(e));
+		if (f != null)
+			f.resolve(result);
 	}
 
 	/**
-	 * We send @param b to every microservice in the
-	 * broadcast-queue hashmap (broadcastMap), by adding to the corresponding queue.
-	 * We also notify every thread, that a new message has appeared.
+	 * @return the amount of events that were sent and not completed yet,
+	 *         meaning the amount of futures the message-bus still holds.
+	 */
+	public int getPendingFutureCount() {
+		return eventFutureObjects.size();
+	}
+
+	/**
+	 * @return the amount of messages waiting in the mailbox of @param m, 0 if it is not registered.
+	 */
+	public int getQueueDepth(MicroService m) {
+		Mailbox mailbox = microserviceMessageQueue.get(m);
+		return mailbox == null ? 0 : mailbox.size();
+	}
+
+	/**
+	 * Lets a sender see how far behind the receivers of its messages are, so it can pace itself.
+	 * @return the amount of messages waiting in the mailboxes of all the micro-services subscribed to
+	 *         messages of type @param type, of any type. 0 if no one is subscribed.
+	 */
+	public int getQueueDepth(Class<? extends Message> type) {
+		MicroService[] subscribers;
+		if (Event.class.isAssignableFrom(type)) {
+			EventRoute route = routeIn(eventRoutes, type);
+			subscribers = route == null ? new MicroService[0] : route.getSubscribers();
+		} else {
+			SubscriberSet subscriberSet = routeIn(broadcastRoutes, type);
+			subscribers = subscriberSet == null ? new MicroService[0] : subscriberSet.get();
+		}
+		int depth = 0;
+		for (MicroService subscriber : subscribers) {
+			depth += getQueueDepth(subscriber);
+		}
+		return depth;
+	}
+
+	/**
+	 * We send @param b to every microservice subscribed to its type,
+	 * by adding to the corresponding mailbox.
+	 * We read the current subscribers array without any lock, since it is never changed
+	 * once published. Adding to a mailbox wakes only the microservice that owns it.
+	 * A full mailbox does as its {@link OverflowPolicy} says, a broadcast it turns away is only lost to its owner.
+	 * While the {@link Tracer} is on, we trace sending, see {@link #sendEvent(Event)}.
 	 * @param b 	The message to added to the queues.
 	 */
 	@Override
-	public synchronized void sendBroadcast(Broadcast b) {
-		for (MicroService microService : broadcastMap.get(b.getClass())) {
-			if(microService != null) {
-				if (microserviceMessageQueue.get(microService) == null) /*might be redundant*/
-					register(microService);
-				microserviceMessageQueue.get(microService).add(b);
-				notifyAll();
-			}
+	public void sendBroadcast(Broadcast b) {
+		SubscriberSet subscriberSet = routeIn(broadcastRoutes, b.getClass());
+		if (subscriberSet == null)
+			return;
+		long traced = Tracer.begin();
+		MicroService[] subscribers = subscriberSet.get();
+		BusMetrics.TypeMetrics measured = metrics.isEnabled() ? metrics.sent(b) : null;
+		for (MicroService microService : subscribers) {
+			Mailbox mailbox = microserviceMessageQueue.get(microService);
+			if (mailbox != null)
+				mailbox.add(measured == null ? b : metrics.stamp(b, measured, microService, mailbox));
 		}
+		Tracer.end("sendBroadcast", b.getClass(), traced);
 	}
 
 	/**
-	 * We get the first microservice from the queue in the event-queue hash map,
-	 * add @param e to its corresponding queue and return the microservice to
-	 * the end of the queue, to get the round-robin effect.
-	 * We also notify every thread, that a new message has appeared.
+	 * We let the dispatch strategy of the route of @param e choose one of its subscribers,
+	 * and add @param e to the mailbox of that microservice.
+	 * Adding to the mailbox wakes only the microservice that owns it.
+	 * If the chosen microservice was unregistered in the meantime, we drop it from the
+	 * route and choose again.
+	 * If its mailbox is full, it does as its {@link OverflowPolicy} says: we wait for room, route the event
+	 * to another subscriber, or return a Future that is already rejected.
+	 * While the {@link Tracer} is on, we record a "sendEvent" span from choosing until adding.
 	 * @param e     	The event to add to the queue.
 	 * @param <T>
 	 * @return
 	 */
 	@Override
-	public synchronized <T> Future<T> sendEvent(Event<T> e) {
-		if(eventMap.get(e.getClass()) != null) {
-			MicroService m = eventMap.get(e.getClass()).poll();
-			if(m == null)
+	public <T> Future<T> sendEvent(Event<T> e) {
+		long traced = Tracer.begin();
+		Future<T> f = deliver(e);
+		Tracer.end("sendEvent", e.getClass(), traced);
+		return f;
+	}
+
+	/**
+	 * Sends @param e as {@link #sendEvent(Event)} describes, without tracing it.
+	 */
+	private <T> Future<T> deliver(Event<T> e) {
+		EventRoute route = routeIn(eventRoutes, e.getClass());
+		if (route == null)
+			return null;
+		EventKey key = new EventKey(e);
+		BusMetrics.TypeMetrics measured = metrics.isEnabled() ? metrics.sent(e) : null;
+		for (;;) {
+			MicroService[] subscribers = route.getSubscribers();
+			if (subscribers.length == 0)
 				return null;
-			microserviceMessageQueue.get(m).add(e);
-			eventMap.get(e.getClass()).add(m);
-			Future<T> f = new Future<>();
-			eventFutureObjects.put(e, f);
-			notifyAll();
-			return f;
+			int chosen = route.getStrategy().select(e, subscribers, this::loadOf);
+			MicroService m = subscribers[chosen];
+			Mailbox mailbox = microserviceMessageQueue.get(m);
+			if (mailbox == null) {
+				route.remove(m);
+				continue;
+			}
+			Future<T> f = measured == null ? new Future<>() : metrics.timedFuture(measured);
+			eventFutureObjects.put(key, f);
+			Mailbox.Result added = mailbox.add(measured == null ? e : metrics.stamp(e, measured, m, mailbox));
+			if (added == Mailbox.Result.ADDED) {
+				if (route.isWorkStealing() && mailbox.load() > 1)
+					wakeIdleSubscriber(subscribers);
+				return f;
+			}
+			if (added == Mailbox.Result.FULL) {
+				if (mailbox.policy() == OverflowPolicy.ROUTE && reroute(e, measured, subscribers, chosen))
+					return f;
+				eventFutureObjects.remove(key);
+				f.reject(new RejectedExecutionException("The mailbox of " + m.getName() + " is full"));
+				return f;
+			}
+			eventFutureObjects.remove(key);
+			route.remove(m);
+		}
+	}
+
+	/**
+	 * Offers @param e to the subscribers after the one at @param chosen, whose mailbox was full, in order.
+	 * @return true if one of them had room for it.
+	 */
+	private boolean reroute(Event<?> e, BusMetrics.TypeMetrics measured, MicroService[] subscribers, int chosen) {
+		for (int i = 1; i < subscribers.length; i++) {
+			MicroService m = subscribers[(chosen + i) % subscribers.length];
+			Mailbox mailbox = microserviceMessageQueue.get(m);
+			if (mailbox != null && mailbox.offer(measured == null ? e : metrics.stamp(e, measured, m, mailbox)) == Mailbox.Result.ADDED)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * An event was added behind other messages, so we wake one of @param subscribers
+	 * that is parked on an empty mailbox, to let it steal the event.
+	 */
+	private void wakeIdleSubscriber(MicroService[] subscribers) {
+		for (MicroService subscriber : subscribers) {
+			Mailbox mailbox = microserviceMessageQueue.get(subscriber);
+			if (mailbox != null && mailbox.wakeIfParked())
+				return;
+		}
+	}
+
+	/**
+	 * We go through the routes of the event types @param thief subscribed to and that allow
+	 * work stealing, and take an event waiting in the mailbox of another subscriber,
+	 * preferring the subscriber with the most messages waiting.
+	 * @return the event taken, null if there is none.
+	 */
+	private Message steal(MicroService thief) {
+		for (EventRoute route : eventRoutes) {
+			if (route == null || !route.isWorkStealing() || !route.contains(thief))
+				continue;
+			Mailbox busiest = null;
+			for (MicroService subscriber : route.getSubscribers()) {
+				Mailbox mailbox = microserviceMessageQueue.get(subscriber);
+				if (subscriber != thief && mailbox != null && (busiest == null || mailbox.size() > busiest.size()))
+					busiest = mailbox;
+			}
+			if (busiest == null || busiest.size() == 0)
+				continue;
+			Message stolen = busiest.steal(route.getType());
+			if (stolen != null)
+				return stolen;
+			for (MicroService subscriber : route.getSubscribers()) { /*the busiest one holds only other messages*/
+				Mailbox mailbox = microserviceMessageQueue.get(subscriber);
+				if (subscriber != thief && mailbox != null && mailbox != busiest && mailbox.size() > 0) {
+					stolen = mailbox.steal(route.getType());
+					if (stolen != null)
+						return stolen;
+				}
+			}
 		}
 		return null;
 	}
 
+	private int loadOf(MicroService m) {
+		Mailbox mailbox = microserviceMessageQueue.get(m);
+		return mailbox == null ? Integer.MAX_VALUE : mailbox.load();
+	}
+
 	/**
-	 * We create a new queue for @param m in the microservice-queue hash map.
+	 * We create a new queue for @param m in the microservice-queue hash map,
+	 * with the capacity and overflow policy it asked for, see {@link MicroService#setMailboxCapacity(int, OverflowPolicy)},
+	 * of the current {@link MailboxType}.
 	 * @param m the micro-service to create a queue for.
 	 */
 	@Override
 	public void register(MicroService m) {
-		if(!microserviceMessageQueue.contains(m)){
-			microserviceMessageQueue.put(m, new ConcurrentLinkedQueue<>());
-		}
+		microserviceMessageQueue.putIfAbsent(m, new Mailbox(null, m.getMailboxCapacity(), m.getOverflowPolicy(), mailboxType));
+	}
+
+	/**
+	 * We create a new mailbox for @param m, which runs @param onMessage whenever a message
+	 * is added to it, instead of waking a thread that waits in {@link #awaitMessage(MicroService)}.
+	 * Used by runtimes that schedule microservices only when they have messages.
+	 * @return the mailbox of @param m.
+	 */
+	Mailbox register(MicroService m, Runnable onMessage) {
+		Mailbox mailbox = new Mailbox(onMessage, m.getMailboxCapacity(), m.getOverflowPolicy(), mailboxType);
+		Mailbox existing = microserviceMessageQueue.putIfAbsent(m, mailbox);
+		return existing == null ? mailbox : existing;
 	}
 
 	/**
 	 * We remove @param m from the microservice-queue hash map,
 	 * and also go through every broadcast/event queue, and remove it
 	 * from there, if it exists.
+	 * Events that were left in its mailbox will never be handled, so we
+	 * resolve their futures with null and stop tracking them.
 	 * @param m the micro-service to unregister.
 	 */
-	@Override
+	@Override @SuppressWarnings("unchecked")
 	public void unregister(MicroService m) {
-		if (microserviceMessageQueue.get(m) == null)
+		Mailbox mailbox = microserviceMessageQueue.remove(m);
+		if (mailbox == null)
 			return;
 
-		microserviceMessageQueue.remove(m);
+		for (SubscriberSet subscribers : broadcastRoutes) {
+			if (subscribers != null)
+				subscribers.remove(m);
+		}
 
-		Collection<List<MicroService>> broadcastValues = broadcastMap.values();
-		for (List<MicroService> lstM : broadcastValues) {
-			lstM.remove(m);
+		for (EventRoute route : eventRoutes) {
+			if (route != null)
+				route.remove(m);
 		}
 
-		Collection<ConcurrentLinkedQueue<MicroService>> eventValues = eventMap.values();
-		for (ConcurrentLinkedQueue<MicroService> EventQueueM : eventValues){
-			EventQueueM.remove(m);
+		for (Message message : mailbox.close()) {
+			if (message instanceof Event)
+				complete((Event<Object>) message, null);
 		}
+		metrics.unregistered(m);
 	}
 
 	/**
-	 * If there are no messages in the queue, we wait until one appears, or another
-	 * thread has notified us.
-	 * We return the first message from the queue.
+	 * If there are no messages in the mailbox of @param m, we park until a message
+	 * is added to it, with no timed polling.
+	 * If work stealing is enabled for an event type @param m subscribed to, we first try
+	 * to take such an event from another subscriber, see {@link #setWorkStealing(Class, boolean)}.
+	 * We return the first message from the mailbox.
+	 * While the {@link Tracer} is on, we record the time we waited as an "awaitMessage" span.
 	 * @param m The micro-service requesting to take a message from its message
 	 *          queue.
 	 * @return
@@ -167,15 +489,48 @@ public class MessageBusImpl implements MessageBus {
 	 */
 	@Override
 	public Message awaitMessage(MicroService m) throws InterruptedException {
-		synchronized (this) {
-			if (microserviceMessageQueue.get(m) == null) {
-				throw new InterruptedException("This MicroService was never registered to the MessageBus");
-			}
-			while (microserviceMessageQueue.get(m).isEmpty()) {
-				wait(100);
-			}
-			notifyAll();
-			return microserviceMessageQueue.get(m).poll();
+		Mailbox mailbox = microserviceMessageQueue.get(m);
+		if (mailbox == null) {
+			throw new InterruptedException("This MicroService was never registered to the MessageBus");
+		}
+		long traced = Tracer.begin();
+		Message message = workStealing ? mailbox.take(() -> steal(m)) : mailbox.take();
+		Tracer.end("awaitMessage", null, traced);
+		return message;
+	}
+
+	/**
+	 * Like {@link #awaitMessage(MicroService)}, but takes all the messages waiting in the
+	 * mailbox of @param m at once, up to the length of @param batch, so their synchronization
+	 * and wakeup are paid once. The messages are placed at the start of @param batch in the
+	 * order they were received.
+	 * @param m     The micro-service requesting to take messages from its message queue.
+	 * @param batch The array to place the messages in.
+	 * @return the amount of messages taken, at least one.
+	 * @throws InterruptedException if interrupted while waiting for a message, or if @param m
+	 *                              was never registered.
+	 */
+	public int awaitMessages(MicroService m, Message[] batch) throws InterruptedException {
+		Mailbox mailbox = microserviceMessageQueue.get(m);
+		if (mailbox == null) {
+			throw new InterruptedException("This MicroService was never registered to the MessageBus");
+		}
+		long traced = Tracer.begin();
+		int received = mailbox.take(batch, workStealing ? () -> steal(m) : null);
+		Tracer.end("awaitMessage", null, traced);
+		return received;
+	}
+
+	/**
+	 * The messages @param messages from index @param from (inclusive) to @param to (exclusive)
+	 * were taken from a mailbox by a microservice that terminated before handling them.
+	 * Just like the events left in the mailbox on unregister, we resolve their futures with null.
+	 */
+	@SuppressWarnings("unchecked")
+	void discard(Message[] messages, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (messages[i] instanceof Event)
+				complete((Event<Object>) messages[i], null);
 		}
 	}
 }
\ No newline at end of file
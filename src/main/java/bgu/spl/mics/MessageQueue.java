@@ -0,0 +1,35 @@
+package bgu.spl.mics;
+
+import java.util.function.Predicate;
+
+/**
+ * The queue of messages inside a {@link Mailbox}. Any thread may add and remove messages, but only the owner
+ * of the mailbox polls, one thread at a time, which lets an implementation skip what multiple consumers need.
+ * The mailbox keeps its own count of the messages, so a queue does not count them.
+ */
+interface MessageQueue {
+
+	/**
+	 * Adds @param m to the end of the queue. Called by any thread.
+	 */
+	void add(Message m);
+
+	/**
+	 * @return the first message, null if the queue is empty. Called by the owner only.
+	 */
+	Message poll();
+
+	boolean isEmpty();
+
+	/**
+	 * Removes @param m from wherever it is in the queue. Called by any thread.
+	 * @return true if @param m was in the queue.
+	 */
+	boolean remove(Message m);
+
+	/**
+	 * Removes the first message that @param matches accepts. Called by any thread.
+	 * @return the removed message, null if there is no such message.
+	 */
+	Message removeFirst(Predicate<Message> matches);
+}
@@ -0,0 +1,92 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives every message type a small integer ID the first time it is asked for one, so the routes of the
+ * {@link MessageBusImpl} and the callbacks of a {@link MicroService} are arrays indexed by the ID of the
+ * type instead of maps keyed by its Class.
+ * <p>
+ * The IDs are kept in a {@link ClassValue}, which stores them with the Class itself, so looking up the ID
+ * of a type that already has one takes no lock. The IDs start at 0 and grow by one per type; two threads
+ * asking for the ID of the same new type at once may skip an ID, which only leaves an unused slot in the tables.
+ * <p>
+ * On the JVMs we measured, looking up an ID costs about as much as looking the Class up in a HashMap,
+ * see the {@code DispatchTableBenchmark}, since the identity hash of a Class is cheap to read. The tables are
+ * kept for subclass routing, which walks the superclasses of a type by their IDs, rather than for speed.
+ * A micro-service keeps a {@link LastType} of its own, which skips the lookup while the messages it handles
+ * are of the same type as the one before; the message-bus, whose senders are many threads, looks up every one.
+ */
+public final class MessageTypes {
+	private static final AtomicInteger next = new AtomicInteger();
+	private static final ClassValue<TypeId> ids = new ClassValue<TypeId>() {
+		@Override
+		protected TypeId computeValue(Class<?> type) {
+			return new TypeId(type, next.getAndIncrement());
+		}
+	};
+
+	private MessageTypes() {
+	}
+
+	/**
+	 * @return the ID of the message type @param type.
+	 */
+	public static int idOf(Class<?> type) {
+		return ids.get(type).id;
+	}
+
+	/**
+	 * @return the entry of @param table at @param id, null if the table is too short to have one.
+	 */
+	static <T> T get(T[] table, int id) {
+		return id < table.length ? table[id] : null;
+	}
+
+	/**
+	 * @return @param table, or a longer copy of it if it is too short to have an entry at @param id.
+	 */
+	static <T> T[] withSlot(T[] table, int id) {
+		if (id < table.length)
+			return table;
+		return Arrays.copyOf(table, Math.max(id + 1, 2 * table.length));
+	}
+
+	/**
+	 * A type with its ID. Its fields are final, so a TypeId read through a race is always whole.
+	 */
+	private static final class TypeId {
+		private final Class<?> type;
+		private final int id;
+
+		private TypeId(Class<?> type, int id) {
+			this.type = type;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Remembers the type whose ID it was asked for last, and gives the ID of that type again
+	 * without looking it up. A type it was not asked for last costs one lookup, after which
+	 * it remembers that type instead.
+	 * <p>
+	 * It is meant for a single thread, since every thread that asks for another type writes it, but it holds
+	 * a whole {@link TypeId} only, so a thread that reads it through a race gets a right ID all the same.
+	 */
+	public static final class LastType {
+		private TypeId last = new TypeId(null, -1);
+
+		/**
+		 * @return the ID of the message type @param type.
+		 */
+		public int idOf(Class<?> type) {
+			TypeId typeId = last;
+			if (typeId.type != type) {
+				typeId = ids.get(type);
+				last = typeId;
+			}
+			return typeId.id;
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package bgu.spl.mics;
 
-import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * The MicroService is an abstract class that any micro-service in the system
@@ -17,14 +17,27 @@ import java.util.HashMap;
  * method). The abstract MicroService stores this callback together with the
  * type of the message is related to.
  * 
- * Only private fields and methods may be added to this class.
+ * Besides the methods it was given, this class has a protected {@code subscribeEvent} that takes a
+ * {@link DispatchStrategy} and a protected {@code queueDepth}, and public methods to bound the mailbox,
+ * await the initialization and read the busy and idle times. Its package-private methods serve the
+ * {@link MessageBusImpl} and the {@link ServiceRuntime} implementations, which run the micro-service on a
+ * thread of its own or on a shared one. Any other field or method added to this class is private.
  * <p>
  */
 public abstract class MicroService implements Runnable {
-    private MessageBus messageBus = MessageBusImpl.getInstance();
+    private static final int BATCH = 32;
+    private MessageBusImpl messageBus = MessageBusImpl.getInstance();
     private String name;
     private boolean terminated;
-    private HashMap<Class<? extends Message>, Callback> messageCallBacks;
+    private boolean sharedThread;
+    private Callback<Message>[] messageCallBacks;
+    private final MessageTypes.LastType lastType;
+    private final CountDownLatch initialized;
+    private long startTime;
+    private long stopTime;
+    private long busyNanos;
+    private int mailboxCapacity;
+    private OverflowPolicy overflowPolicy;
 
     /**
      * @param name the micro-service name (used mainly for debugging purposes -
@@ -33,8 +46,13 @@ public abstract class MicroService implements Runnable {
     public MicroService(String name) {
     	this.name = name;
     	terminated = false;
+        sharedThread = false;
     	Thread.currentThread().setName(name);
-        messageCallBacks = new HashMap<>();
+        messageCallBacks = noCallbacks();
+        lastType = new MessageTypes.LastType();
+        initialized = new CountDownLatch(1);
+        mailboxCapacity = Mailbox.UNBOUNDED;
+        overflowPolicy = OverflowPolicy.BLOCK;
     }
 
     /**
@@ -60,7 +78,29 @@ public abstract class MicroService implements Runnable {
      */
     protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Callback<E> callback) {
     	messageBus.subscribeEvent(type, this);
-        messageCallBacks.put(type,callback);
+        putCallback(type, callback);
+    }
+
+    /**
+     * Subscribes to events of type {@code type} with the callback
+     * {@code callback}, like {@link #subscribeEvent(Class, Callback)}, and makes
+     * the message-bus dispatch the events of type {@code type} using {@code strategy}
+     * instead of round-robin. The strategy serves all the subscribers of {@code type},
+     * it replaces any strategy chosen by an earlier subscription to {@code type}.
+     * <p>
+     * @param <E>      The type of event to subscribe to.
+     * @param <T>      The type of result expected for the subscribed event.
+     * @param type     The {@link Class} representing the type of event to
+     *                 subscribe to.
+     * @param callback The callback that should be called when messages of type
+     *                 {@code type} are taken from this micro-service message
+     *                 queue.
+     * @param strategy The strategy that chooses which subscriber of {@code type}
+     *                 receives each event, see {@link DispatchStrategies}.
+     */
+    protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Callback<E> callback, DispatchStrategy strategy) {
+        messageBus.subscribeEvent(type, this, strategy);
+        putCallback(type, callback);
     }
 
     /**
@@ -85,7 +125,7 @@ public abstract class MicroService implements Runnable {
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
     	messageBus.subscribeBroadcast(type, this);
-        messageCallBacks.put(type,callback);
+        putCallback(type, callback);
     }
 
     /**
@@ -139,7 +179,8 @@ public abstract class MicroService implements Runnable {
      */
     protected final void terminate() {
         terminated = true;
-        Thread.currentThread().interrupt();
+        if (!sharedThread)
+            Thread.currentThread().interrupt();
     }
 
     /**
@@ -156,6 +197,64 @@ public abstract class MicroService implements Runnable {
         return name;
     }
 
+    /**
+     * Bounds the mailbox of this micro-service to @param capacity waiting messages, and decides with
+     * @param policy what becomes of messages sent to it while it is full, see {@link OverflowPolicy}.
+     * The mailbox is unbounded by default. The mailbox is created when this micro-service registers,
+     * so call it before it starts.
+     */
+    public final void setMailboxCapacity(int capacity, OverflowPolicy policy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of a mailbox must be positive: " + capacity);
+        if (policy == null)
+            throw new IllegalArgumentException("A bounded mailbox needs an overflow policy");
+        mailboxCapacity = capacity;
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @return the amount of messages waiting in the mailboxes of the micro-services subscribed to messages
+     *         of type @param type, see {@link MessageBusImpl#getQueueDepth(Class)}.
+     */
+    protected final int queueDepth(Class<? extends Message> type) {
+        return messageBus.getQueueDepth(type);
+    }
+
+    final int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    final OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Waits until this micro-service has registered and run {@link #initialize()}, so every
+     * subscription it makes there is in place.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public final void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    /**
+     * @return the time in nanoseconds this micro-service spent initializing and handling messages.
+     *         Read it after the micro-service terminated, see {@link ServiceRuntime#awaitTermination()}.
+     */
+    public final long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds this micro-service was running but had no message to handle,
+     *         either waiting for one or waiting to be scheduled.
+     *         Read it after the micro-service terminated, see {@link ServiceRuntime#awaitTermination()}.
+     */
+    public final long getIdleNanos() {
+        return stopTime - startTime - busyNanos;
+    }
+
     /**
      * The entry point of the micro-service. TODO: you must complete this code
      * otherwise you will end up in an infinite loop.
@@ -163,29 +262,140 @@ public abstract class MicroService implements Runnable {
      * After registering and initializing the microservice,
      * we have a while loop, that ends when the thread gets interrupted, which only happens
      * when the terminate function is called.
-     * In the loop we wait for messages to receive, and when we receive one,
-     * we call its Callback function.
+     * In the loop we wait for messages to receive, taking all the waiting messages
+     * (up to a batch) at once, and we call the Callback function of each of them in order.
+     * If we terminate in the middle of a batch, the messages left in the batch are discarded
+     * just like the ones left in the queue.
      * At the end we unregister and call the abstract function close,
      * which inputs to the Diary the termination time of the thread.
      */
     @Override
     public final void run() {
-    	messageBus.register(this);
-    	initialize();
+    	start();
+        Message[] batch = new Message[BATCH];
     	while(!Thread.currentThread().isInterrupted() & !terminated){
             try {
                 if(Thread.currentThread().isInterrupted() | terminated)
                     break;
-                Message m = messageBus.awaitMessage(this);
-                messageCallBacks.get(m.getClass()).call(m);
-                if(Thread.currentThread().isInterrupted() | terminated)
-                    break;
+                int received = messageBus.awaitMessages(this, batch);
+                long handling = System.nanoTime();
+                for (int i = 0; i < received; i++) {
+                    Message m = batch[i];
+                    batch[i] = null;
+                    handle(m);
+                    if(Thread.currentThread().isInterrupted() | terminated) {
+                        messageBus.discard(batch, i + 1, received);
+                        break;
+                    }
+                }
+                addBusyTime(handling);
             } catch (InterruptedException e) {
                 break;
             }
         }
-    	messageBus.unregister(this);
-    	close();
+    	stop();
+    }
+
+    /**
+     * Marks this micro-service as running on a thread it shares with other micro-services,
+     * see {@link SharedExecutorRuntime}. Its event loop is then driven from outside by
+     * {@link #start()}, {@link #handle(Message)} and {@link #stop()}, and {@link #terminate()}
+     * must not interrupt the thread.
+     */
+    final void runOnSharedThread() {
+        sharedThread = true;
+    }
+
+    /**
+     * Registers and initializes this micro-service, the first step of its event loop.
+     */
+    final void start() {
+        startTime = System.nanoTime();
+        Tracer.track(name);
+        try {
+            messageBus.register(this);
+            initialize();
+        } finally {
+            addBusyTime(startTime);
+            initialized.countDown();
+        }
+    }
+
+    /**
+     * Counts the time since @param since, a {@link System#nanoTime()} reading, as busy time.
+     */
+    final void addBusyTime(long since) {
+        busyNanos += System.nanoTime() - since;
+    }
+
+    /**
+     * Calls the callback this micro-service subscribed with for the type of {@code m}.
+     * The callbacks are kept by the IDs of their types, see {@link MessageTypes}, and while we get messages
+     * of the same type as the one before, we do not look its ID up again. A message that the
+     * message-bus routed to us by one of its superclasses, see {@link MessageBusImpl#setSubclassRouting(Class, boolean)},
+     * gets the callback of the nearest such superclass we subscribed to, which we keep under its own type from then on.
+     * A message we have no callback for at all is a mistake of whoever sent it to us, and fails with an IllegalStateException.
+     * While the {@link BusMetrics} are on, we time the callback, and while the {@link Tracer} is on, we trace it
+     * on the track of this micro-service.
+     */
+    final void handle(Message m) {
+        int id = lastType.idOf(m.getClass());
+        Callback<Message> callback = MessageTypes.get(messageCallBacks, id);
+        if (callback == null) {
+            for (Class<?> c = m.getClass().getSuperclass(); callback == null && c != null; c = c.getSuperclass()) {
+                if (messageBus.routesSubclasses(c))
+                    callback = MessageTypes.get(messageCallBacks, MessageTypes.idOf(c));
+            }
+            if (callback == null)
+                throw new IllegalStateException(name + " has no callback for messages of type " + m.getClass().getName());
+            putCallback(m.getClass(), callback);
+        }
+        BusMetrics metrics = messageBus.getMetrics();
+        if (!metrics.isEnabled() && !Tracer.isEnabled()) {
+            callback.call(m);
+            return;
+        }
+        Tracer.track(name);
+        long start = System.nanoTime();
+        try {
+            callback.call(m);
+        } finally {
+            if (metrics.isEnabled())
+                metrics.handled(this, m, System.nanoTime() - start);
+            Tracer.end("callback", m.getClass(), start);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Callback<Message>[] noCallbacks() {
+        return (Callback<Message>[]) new Callback<?>[0];
+    }
+
+    /**
+     * Keeps @param callback for the messages of class @param type. The callback only ever gets
+     * messages of that class or of its subclasses, so calling it with a {@link Message} is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private void putCallback(Class<?> type, Callback<?> callback) {
+        int id = MessageTypes.idOf(type);
+        messageCallBacks = MessageTypes.withSlot(messageCallBacks, id);
+        messageCallBacks[id] = (Callback<Message>) callback;
+    }
+
+    /**
+     * @return true if this micro-service called {@link #terminate()}.
+     */
+    final boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Unregisters this micro-service and closes it, the last step of its event loop.
+     */
+    final void stop() {
+        messageBus.unregister(this);
+        close();
+        stopTime = System.nanoTime();
     }
 
 }
@@ -0,0 +1,38 @@
+package bgu.spl.mics;
+
+/**
+ * What the {@link MessageBusImpl} does with a message sent to a micro-service whose mailbox is full,
+ * see {@link MicroService#setMailboxCapacity(int, OverflowPolicy)}.
+ * <p>
+ * An event that is not added to any mailbox is rejected: the Future returned for it is completed with a
+ * {@link java.util.concurrent.RejectedExecutionException}, see {@link Future#isRejected()}. A broadcast that is not
+ * added to a mailbox is only dropped for that micro-service. Either way the mailbox counts it as dropped.
+ */
+public enum OverflowPolicy {
+    /**
+     * The sender waits until the mailbox has room, or until the micro-service unregisters.
+     * A sender that is interrupted while waiting stops waiting, and its message is rejected.
+     * A micro-service that sends to itself while its own mailbox is full would wait forever, so it is
+     * rejected instead. Waiting in a thread of a {@link java.util.concurrent.ForkJoinPool}, as with
+     * {@link ServiceRuntime#sharedExecutor(int, int)}, lets the pool add a thread in the meantime.
+     */
+    BLOCK,
+
+    /**
+     * The message is rejected at once.
+     */
+    FAIL,
+
+    /**
+     * A broadcast makes room by dropping the oldest broadcast waiting in the mailbox, or is dropped itself if
+     * only events wait there. An event is rejected at once, since dropping an event would leave its Future unresolved.
+     */
+    DROP_OLDEST,
+
+    /**
+     * An event goes to another subscriber of its type whose mailbox has room, in the order of the subscribers
+     * after the one the dispatch strategy chose, and is rejected if none has room.
+     * A broadcast, which goes to every subscriber anyway, is dropped.
+     */
+    ROUTE
+}
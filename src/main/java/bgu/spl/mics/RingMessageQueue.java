@@ -0,0 +1,312 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/*
+ * The indices of a chunk of the ring are kept in fields of superclasses of their own, with padding around them,
+ * so the index the senders write and the index the owner writes are never on the same cache line,
+ * nor on the line of the fields of the chunk itself. A class lays out the fields of its superclasses first.
+ */
+abstract class RingPadding0 {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+	long p08, p09, p0a, p0b, p0c, p0d, p0e, p0f;
+}
+
+abstract class RingProducerFields extends RingPadding0 {
+	private static final AtomicLongFieldUpdater<RingProducerFields> PRODUCER_INDEX =
+			AtomicLongFieldUpdater.newUpdater(RingProducerFields.class, "producerIndex");
+
+	private volatile long producerIndex;
+	/*the index below which the senders know the ring has room, so they need not read the index of the owner*/
+	private volatile long producerLimit;
+
+	final long producerIndex() {
+		return producerIndex;
+	}
+
+	final boolean claimProducerIndex(long expected) {
+		return PRODUCER_INDEX.compareAndSet(this, expected, expected + 1);
+	}
+
+	/**
+	 * Marks the producer index as closed at @param expected, see {@link RingMessageQueue}.
+	 */
+	final boolean closeProducerIndex(long expected) {
+		return PRODUCER_INDEX.compareAndSet(this, expected, ~expected);
+	}
+
+	final long producerLimit() {
+		return producerLimit;
+	}
+
+	final void producerLimit(long limit) {
+		producerLimit = limit;
+	}
+}
+
+abstract class RingPadding1 extends RingProducerFields {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+	long p18, p19, p1a, p1b, p1c, p1d, p1e, p1f;
+}
+
+abstract class RingConsumerFields extends RingPadding1 {
+	private static final AtomicLongFieldUpdater<RingConsumerFields> CONSUMER_INDEX =
+			AtomicLongFieldUpdater.newUpdater(RingConsumerFields.class, "consumerIndex");
+
+	private volatile long consumerIndex;
+
+	final long consumerIndex() {
+		return consumerIndex;
+	}
+
+	/**
+	 * Only the owner moves its index, so it needs no compare-and-set, and the senders need not see it at once.
+	 */
+	final void consumerIndex(long index) {
+		CONSUMER_INDEX.lazySet(this, index);
+	}
+}
+
+abstract class RingPadding2 extends RingConsumerFields {
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+	long p28, p29, p2a, p2b, p2c, p2d, p2e, p2f;
+}
+
+/**
+ * A {@link MessageQueue} that keeps the messages in arrays used as rings, in the manner of the MPSC queues of
+ * JCTools, see {@link MailboxType#RING}. A sender claims the next slot of a ring by a compare-and-set of its producer
+ * index and then stores its message there. The owner reads the slot at the consumer index, empties it and moves the
+ * index on, so a message takes no allocation and the owner reads the messages in the order of the array.
+ * <p>
+ * Every slot also has a sequence: the index at which the current round of the ring starts, for the slot's message.
+ * Other threads take messages out of the middle of the ring, for work stealing and for dropping broadcasts, and the
+ * owner takes them from the front, by a compare-and-set of the sequence to the start of the next round, so no message
+ * is taken twice. The owner empties the slot only after that, and the senders store the next message in it only after
+ * the owner moved its index past it. A slot whose sequence is not the round of the index looked at holds a message of
+ * another round, which is passed over; without the sequences, a thread that looked at the ring before the senders went
+ * round it could take a newer message ahead of older ones. The sequences are ints, so they only repeat after 2^32
+ * messages, far more than a thread looking at the ring ever falls behind.
+ * <p>
+ * A queue starts with a ring of {@value #INITIAL_SIZE} slots, or of the capacity of a smaller bounded mailbox, so a
+ * micro-service that gets few messages holds a few hundred bytes. A sender that finds the ring full closes it, by
+ * replacing its producer index with the complement of the index, and links a new ring twice as large, up to
+ * {@value #MAX_SIZE} slots or the capacity of the mailbox, behind it. Senders then add to the newest ring only.
+ * The owner empties a closed ring before it moves on to the next one, so the messages of every sender keep their
+ * order, and the closed ring is left to the garbage collector.
+ */
+final class RingMessageQueue implements MessageQueue {
+	static final int INITIAL_SIZE = 32;
+	static final int MAX_SIZE = 1024;
+
+	private final int maxSize;
+	/*the ring the owner polls, written by the owner only*/
+	private volatile Chunk head;
+	/*the ring the senders add to, or one before it*/
+	private volatile Chunk tail;
+
+	/**
+	 * @param capacity the capacity of the mailbox, or {@link Mailbox#UNBOUNDED}.
+	 */
+	RingMessageQueue(int capacity) {
+		maxSize = slotCount(Math.min(capacity, MAX_SIZE));
+		head = new Chunk(slotCount(Math.min(capacity, INITIAL_SIZE)));
+		tail = head;
+	}
+
+	/**
+	 * @return @param size rounded up to a power of two.
+	 */
+	private static int slotCount(int size) {
+		return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	@Override
+	public void add(Message m) {
+		Chunk chunk = tail;
+		for (;;) {
+			int offered = chunk.offer(m);
+			if (offered == Chunk.ADDED)
+				return;
+			if (offered == Chunk.CLOSED_NOW) {
+				Chunk next = new Chunk(Math.min(2 * chunk.size(), maxSize));
+				next.offer(m);
+				chunk.next = next;
+				tail = next;
+				return;
+			}
+			chunk = chunk.awaitNext();
+		}
+	}
+
+	@Override
+	public Message poll() {
+		Chunk chunk = head;
+		for (;;) {
+			long index = chunk.consumerIndex();
+			long produced;
+			while (index != Chunk.end(produced = chunk.producerIndex())) {
+				Message m = chunk.takeAt(index);
+				index++;
+				chunk.consumerIndex(index);
+				if (m != null)
+					return m;
+			}
+			if (produced >= 0)
+				return null;
+			chunk = chunk.awaitNext();
+			head = chunk;
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+			long produced = chunk.producerIndex();
+			if (chunk.consumerIndex() != Chunk.end(produced))
+				return false;
+			if (produced >= 0)
+				return true;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean remove(Message m) {
+		return removeFirst(waiting -> waiting == m) != null;
+	}
+
+	/**
+	 * Looks at the slots between the consumer index and the producer index of every ring, oldest first.
+	 * A slot whose sender has not stored its message yet, or that holds a message of another round of the ring,
+	 * is passed over. A ring that is still open is looked at again while senders add to it, since a sender may
+	 * then close it and add its next message to a newer ring, which we would otherwise reach first.
+	 */
+	@Override
+	public Message removeFirst(Predicate<Message> matches) {
+		for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+			long index = chunk.consumerIndex();
+			for (;;) {
+				long produced = chunk.producerIndex();
+				for (long end = Chunk.end(produced); index < end; index++) {
+					Message m = chunk.removeAt(index, matches);
+					if (m != null)
+						return m;
+				}
+				if (produced < 0)
+					break;
+				if (chunk.producerIndex() == produced)
+					return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A single ring. Its producer index is negative once the ring is closed, see {@link #end(long)}.
+	 */
+	private static final class Chunk extends RingPadding2 {
+		static final int ADDED = 0;
+		static final int CLOSED = 1;
+		static final int CLOSED_NOW = 2;
+		private static final int SPINS = 64;
+
+		private final AtomicReferenceArray<Message> slots;
+		private final AtomicIntegerArray sequences;
+		private final int mask;
+		private volatile Chunk next;
+
+		Chunk(int size) {
+			slots = new AtomicReferenceArray<>(size);
+			sequences = new AtomicIntegerArray(size);
+			mask = size - 1;
+			producerLimit(size);
+		}
+
+		int size() {
+			return mask + 1;
+		}
+
+		/**
+		 * @return the index below which senders claimed slots, for the producer index @param produced.
+		 */
+		static long end(long produced) {
+			return produced < 0 ? ~produced : produced;
+		}
+
+		/**
+		 * Stores @param m in the next slot of the ring, unless the ring is closed or full.
+		 * @return ADDED, CLOSED if the ring was closed already, or CLOSED_NOW if we closed it since it is full.
+		 */
+		int offer(Message m) {
+			for (;;) {
+				long index = producerIndex();
+				if (index < 0)
+					return CLOSED;
+				if (index >= producerLimit()) {
+					long limit = consumerIndex() + mask + 1;
+					if (index >= limit) {
+						if (closeProducerIndex(index))
+							return CLOSED_NOW;
+						continue;
+					}
+					producerLimit(limit);
+				}
+				if (claimProducerIndex(index)) {
+					slots.lazySet((int) index & mask, m);
+					return ADDED;
+				}
+			}
+		}
+
+		/**
+		 * Takes the message at @param index and empties its slot, called by the owner only.
+		 * @return the message, null if another thread took it already.
+		 */
+		Message takeAt(long index) {
+			int slot = (int) index & mask;
+			Message m = slots.get(slot);
+			/*the slot was claimed, but its sender has not stored its message yet*/
+			for (int spins = 0; m == null; spins++) {
+				if (spins >= SPINS)
+					Thread.yield();
+				m = slots.get(slot);
+			}
+			boolean taken = sequences.compareAndSet(slot, (int) (index & ~mask), (int) (index & ~mask) + mask + 1);
+			slots.lazySet(slot, null);
+			return taken ? m : null;
+		}
+
+		/**
+		 * Takes the message at @param index if @param matches accepts it, leaving the slot to the owner.
+		 * The slot is below the producer index, so it was emptied of the messages of earlier rounds,
+		 * and a message we read after the sequence of its round is the message of @param index.
+		 * @return the message, null if it is taken, not stored yet or not accepted.
+		 */
+		Message removeAt(long index, Predicate<Message> matches) {
+			int slot = (int) index & mask;
+			int round = (int) (index & ~mask);
+			if (sequences.get(slot) != round)
+				return null;
+			Message m = slots.get(slot);
+			if (m != null && matches.test(m) && sequences.compareAndSet(slot, round, round + mask + 1))
+				return m;
+			return null;
+		}
+
+		/**
+		 * @return the ring linked behind this closed one, waiting for the sender that closed it to link it.
+		 */
+		Chunk awaitNext() {
+			Chunk chunk = next;
+			for (int spins = 0; chunk == null; spins++) {
+				if (spins >= SPINS)
+					Thread.yield();
+				chunk = next;
+			}
+			return chunk;
+		}
+	}
+}
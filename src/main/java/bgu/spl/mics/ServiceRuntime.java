@@ -0,0 +1,49 @@
+package bgu.spl.mics;
+
+/**
+ * A service runtime decides on which threads the event loops of {@link MicroService}s run.
+ * The application starts every micro-service through the runtime, and then waits for all
+ * of them to terminate.
+ */
+public interface ServiceRuntime {
+
+    /**
+     * Starts running the event loop of {@code m}.
+     * <p>
+     * @param m The micro-service to run.
+     */
+    void start(MicroService m);
+
+    /**
+     * Waits until every micro-service started by this runtime has terminated.
+     * <p>
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void awaitTermination() throws InterruptedException;
+
+    /**
+     * @return a runtime that runs every micro-service on its own platform thread.
+     */
+    static ServiceRuntime platformThreads() {
+        return new ThreadPerServiceRuntime(Thread::new);
+    }
+
+    /**
+     * @return a runtime that runs every micro-service on its own virtual thread.
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads (before Java 21).
+     */
+    static ServiceRuntime virtualThreads() {
+        return new ThreadPerServiceRuntime(VirtualThreads.factory());
+    }
+
+    /**
+     * @param threads The amount of threads in the shared pool.
+     * @param batch   The maximal amount of messages a micro-service handles before
+     *                giving its thread to another micro-service.
+     * @return a runtime that runs all the micro-services on a shared pool of {@code threads} threads,
+     *         scheduling a micro-service only when it has messages.
+     */
+    static ServiceRuntime sharedExecutor(int threads, int batch) {
+        return new SharedExecutorRuntime(threads, batch);
+    }
+}
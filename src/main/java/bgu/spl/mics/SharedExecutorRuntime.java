@@ -0,0 +1,139 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ServiceRuntime} that runs all the micro-services on a shared, fixed-size
+ * {@link ForkJoinPool}, as actors. A micro-service does not own a thread: it is scheduled
+ * on the pool only when its mailbox has messages, and every turn it handles up to
+ * {@code batch} messages and then gives the thread back.
+ * <p>
+ * A micro-service is scheduled at most once at a time, so its callbacks never run
+ * concurrently, exactly as with a thread of its own. The callbacks should not block for long,
+ * since a blocked callback holds one of the pool's threads.
+ * Work stealing between subscribers (see {@link MessageBusImpl#setWorkStealing(Class, boolean)})
+ * only applies to micro-services that run on threads of their own.
+ */
+class SharedExecutorRuntime implements ServiceRuntime {
+    private final ForkJoinPool pool;
+    private final int batch;
+    private int running;
+
+    SharedExecutorRuntime(int threads, int batch) {
+        if (threads < 1 || batch < 1)
+            throw new IllegalArgumentException("threads and batch must be positive");
+        pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        this.batch = batch;
+        running = 0;
+    }
+
+    @Override
+    public void start(MicroService m) {
+        synchronized (this) {
+            running++;
+        }
+        m.runOnSharedThread();
+        Actor actor = new Actor(m);
+        pool.execute(actor::start);
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        synchronized (this) {
+            while (running > 0) {
+                wait();
+            }
+        }
+        pool.shutdown();
+    }
+
+    private synchronized void terminated() {
+        running--;
+        if (running == 0)
+            notifyAll();
+    }
+
+    /**
+     * Drives the event loop of a single micro-service on the pool.
+     * {@code scheduled} is true while a turn of the micro-service is queued or running;
+     * whoever sets it runs or submits the next turn, so at most one turn exists at a time.
+     * A micro-service whose {@code initialize()} or callback throws is stopped, as one that terminated,
+     * and the exception is thrown on to the thread of the pool. {@code scheduled} then stays true, so it
+     * never runs again.
+     */
+    private class Actor implements Runnable {
+        private final MicroService service;
+        private final AtomicBoolean scheduled;
+        private Mailbox mailbox;
+
+        Actor(MicroService service) {
+            this.service = service;
+            scheduled = new AtomicBoolean(true); /*the start turn*/
+        }
+
+        /**
+         * The first turn: registers the micro-service with a mailbox that schedules it,
+         * and initializes it. Messages sent meanwhile wait for the end of this turn.
+         */
+        void start() {
+            mailbox = MessageBusImpl.getInstance().register(service, this::schedule);
+            try {
+                service.start();
+            } catch (RuntimeException | Error e) {
+                finish();
+                throw e;
+            }
+            endTurn();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                pool.execute(this);
+        }
+
+        /**
+         * A turn: handles up to {@code batch} messages from the mailbox.
+         */
+        @Override
+        public void run() {
+            long turn = System.nanoTime();
+            try {
+                for (int i = 0; i < batch && !service.isTerminated(); i++) {
+                    Message m = mailbox.poll();
+                    if (m == null)
+                        break;
+                    service.handle(m);
+                }
+            } catch (RuntimeException | Error e) {
+                finish();
+                throw e;
+            }
+            mailbox.idle();
+            service.addBusyTime(turn);
+            endTurn();
+        }
+
+        private void endTurn() {
+            if (service.isTerminated()) {
+                finish();
+                return;
+            }
+            scheduled.set(false);
+            if (!mailbox.isEmpty())
+                schedule();
+        }
+
+        /**
+         * Unregisters the micro-service, which resolves the events left in its mailbox with null and sends it
+         * no more messages, closes it and counts it as terminated, even if its {@code close()} throws.
+         */
+        private void finish() {
+            try {
+                service.stop();
+            } finally {
+                terminated();
+            }
+        }
+    }
+}
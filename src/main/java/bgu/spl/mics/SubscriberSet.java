@@ -0,0 +1,62 @@
+package bgu.spl.mics;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The micro-services subscribed to a single message type, in subscription order.
+ * Senders read the subscribers as an array that is never changed once published, so
+ * they need no lock. Subscribing and unregistering replace it with a new array.
+ */
+class SubscriberSet {
+	private final Consumer<MicroService[]> onChange;
+	private volatile MicroService[] subscribers;
+
+	/**
+	 * @param onChange called with every new array of subscribers, before it is published, may be null.
+	 */
+	SubscriberSet(Consumer<MicroService[]> onChange) {
+		this.onChange = onChange;
+		subscribers = new MicroService[0];
+	}
+
+	/**
+	 * @return the current subscribers. The array must not be modified.
+	 */
+	MicroService[] get() {
+		return subscribers;
+	}
+
+	private void publish(MicroService[] current) {
+		if (onChange != null)
+			onChange.accept(current);
+		subscribers = current;
+	}
+
+	synchronized void add(MicroService m) {
+		if (contains(m))
+			return;
+		MicroService[] added = Arrays.copyOf(subscribers, subscribers.length + 1);
+		added[subscribers.length] = m;
+		publish(added);
+	}
+
+	synchronized void remove(MicroService m) {
+		int kept = 0;
+		MicroService[] removed = new MicroService[subscribers.length];
+		for (MicroService subscriber : subscribers) {
+			if (subscriber != m)
+				removed[kept++] = subscriber;
+		}
+		if (kept < subscribers.length)
+			publish(Arrays.copyOf(removed, kept));
+	}
+
+	boolean contains(MicroService m) {
+		for (MicroService subscriber : subscribers) {
+			if (subscriber == m)
+				return true;
+		}
+		return false;
+	}
+}
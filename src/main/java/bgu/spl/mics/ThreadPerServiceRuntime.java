@@ -0,0 +1,38 @@
+package bgu.spl.mics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link ServiceRuntime} that runs every micro-service on a thread of its own,
+ * created by a {@link ThreadFactory}. The thread is named after the micro-service.
+ */
+class ThreadPerServiceRuntime implements ServiceRuntime {
+    private final ThreadFactory threadFactory;
+    private final List<Thread> threads;
+
+    ThreadPerServiceRuntime(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        threads = new ArrayList<>();
+    }
+
+    @Override
+    public synchronized void start(MicroService m) {
+        Thread thread = threadFactory.newThread(m);
+        thread.setName(m.getName());
+        threads.add(thread);
+        thread.start();
+    }
+
+    @Override
+    public void awaitTermination() throws InterruptedException {
+        List<Thread> started;
+        synchronized (this) {
+            started = new ArrayList<>(threads);
+        }
+        for (Thread thread : started) {
+            thread.join();
+        }
+    }
+}
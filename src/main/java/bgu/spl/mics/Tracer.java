@@ -0,0 +1,266 @@
+package bgu.spl.mics;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records spans of time, which the {@link MessageBusImpl}, the {@link MicroService}s and the Ewoks mark
+ * around sending messages, waiting for them, running callbacks and acquiring and releasing Ewoks, and
+ * writes them as a Chrome trace-event JSON file, which chrome://tracing and Perfetto show as a timeline.
+ * <p>
+ * Tracing is off by default. While it is off, marking a span reads a single volatile flag and takes nothing else.
+ * While it is on, every thread records its spans into a ring buffer of its own, so recording takes no
+ * lock and writes no memory that other threads write. A ring buffer holds the last {@code capacity}
+ * spans of its thread, older ones are overwritten and counted as dropped. A ring buffer starts small
+ * and grows up to its capacity, so threads that record little take little memory.
+ * <p>
+ * The spans are shown on tracks: a span goes to the track of the micro-service its thread runs at the time,
+ * see {@link #track(String)}, or to the track of its thread when it runs none. So every micro-service has a
+ * timeline of its own, even when micro-services share threads.
+ * <p>
+ * Spans are marked as follows:
+ * <pre>
+ *     long traced = Tracer.begin();
+ *     ...
+ *     Tracer.end("category", subject, traced);
+ * </pre>
+ * The subject names the span: a class by its simple name, an array of serial numbers of Ewoks by its values,
+ * and anything else by {@link Object#toString()}, which is only called when the trace is written.
+ */
+public final class Tracer {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int SHOWN_SERIALS = 16;
+
+    private static volatile boolean enabled = false;
+    private static volatile int generation = 0;
+    private static int capacity = DEFAULT_CAPACITY;
+    private static long epoch = System.nanoTime();
+    private static final Queue<Ring> rings = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Ring> ring = new ThreadLocal<>();
+
+    /**
+     * The spans recorded by a single thread, which only that thread writes. A span takes a slot of every array,
+     * the slot of the {@code written}th span modulo the length of the arrays.
+     */
+    private static class Ring {
+        private final String thread;
+        private final int generation;
+        private final int capacity;
+        private final AtomicLong written;
+        private String track;
+        private String[] categories;
+        private Object[] subjects;
+        private String[] tracks;
+        private long[] starts;
+        private long[] ends;
+
+        private Ring(String thread, int generation, int capacity) {
+            this.thread = thread;
+            this.generation = generation;
+            this.capacity = capacity;
+            written = new AtomicLong();
+            track = null;
+            int length = Math.min(INITIAL_CAPACITY, capacity);
+            categories = new String[length];
+            subjects = new Object[length];
+            tracks = new String[length];
+            starts = new long[length];
+            ends = new long[length];
+        }
+
+        private void add(String category, Object subject, long start, long end) {
+            long count = written.get();
+            if (count == starts.length && starts.length < capacity)
+                grow();
+            int slot = (int) count & (starts.length - 1);
+            categories[slot] = category;
+            subjects[slot] = subject;
+            tracks[slot] = track;
+            starts[slot] = start;
+            ends[slot] = end;
+            written.lazySet(count + 1);
+        }
+
+        private void grow() {
+            int length = Math.min(2 * starts.length, capacity);
+            categories = Arrays.copyOf(categories, length);
+            subjects = Arrays.copyOf(subjects, length);
+            tracks = Arrays.copyOf(tracks, length);
+            starts = Arrays.copyOf(starts, length);
+            ends = Arrays.copyOf(ends, length);
+        }
+    }
+
+    private Tracer() {
+    }
+
+    /**
+     * Starts tracing with ring buffers of {@value #DEFAULT_CAPACITY} spans per thread.
+     */
+    public static void start() {
+        start(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Forgets the spans recorded so far and starts tracing, with ring buffers of @param capacityPerThread
+     * spans per thread, rounded up to a power of two.
+     */
+    public static synchronized void start(int capacityPerThread) {
+        if (capacityPerThread < 1)
+            throw new IllegalArgumentException("The capacity must be positive: " + capacityPerThread);
+        enabled = false;
+        capacity = capacityPerThread == 1 ? 1 : Integer.highestOneBit(capacityPerThread - 1) << 1;
+        rings.clear();
+        epoch = System.nanoTime();
+        generation++;
+        enabled = true;
+    }
+
+    /**
+     * Stops tracing, keeping the spans recorded so far.
+     */
+    public static void stop() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time a span starts at, or 0 if tracing is off, so that {@link #end(String, Object, long)} does not record it.
+     */
+    public static long begin() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a span from @param begin, as returned by {@link #begin()}, until now, unless tracing is off.
+     * @param category what the span is, for example "sendEvent".
+     * @param subject what the span is about, which names it, or null to name it by its category.
+     */
+    public static void end(String category, Object subject, long begin) {
+        if (begin == 0 || !enabled)
+            return;
+        long end = System.nanoTime();
+        current().add(category, subject, begin, end);
+    }
+
+    /**
+     * Puts the spans the current thread records from now on on the track of @param name, while tracing is on.
+     * A {@link MicroService} calls it with its name before it runs.
+     */
+    public static void track(String name) {
+        if (enabled)
+            current().track = name;
+    }
+
+    /**
+     * @return the amount of spans overwritten since tracing started, since ring buffers were full.
+     */
+    public static long getDropped() {
+        long dropped = 0;
+        for (Ring r : rings) {
+            dropped += Math.max(0, r.written.get() - r.capacity);
+        }
+        return dropped;
+    }
+
+    private static Ring current() {
+        Ring r = ring.get();
+        int current = generation;
+        if (r == null || r.generation != current) {
+            r = new Ring(Thread.currentThread().getName(), current, capacity);
+            ring.set(r);
+            rings.add(r);
+        }
+        return r;
+    }
+
+    /**
+     * Writes the spans recorded since tracing started to the file at @param path, see {@link #write(Writer)}.
+     */
+    public static void write(Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the spans recorded since tracing started as a Chrome trace-event JSON object: a complete ("X") event
+     * per span, with its time in microseconds since tracing started, and a metadata ("M") event naming every track.
+     * The amount of dropped spans goes under "otherData".
+     * <p>
+     * Call it once the traced threads stopped, or stop tracing first. Spans a thread records while we write
+     * them may be left out, and those it overwrites while we write them may be written wrong.
+     */
+    public static synchronized void write(Writer out) throws IOException {
+        Map<String, Integer> trackIds = new LinkedHashMap<>();
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ns");
+        json.name("traceEvents").beginArray();
+        for (Ring r : rings) {
+            long written = r.written.get();
+            int length = r.starts.length;
+            for (long i = Math.max(0, written - length); i < written; i++) {
+                int slot = (int) i & (length - 1);
+                String track = r.tracks[slot] != null ? r.tracks[slot] : r.thread;
+                Integer tid = trackIds.get(track);
+                if (tid == null) {
+                    tid = trackIds.size() + 1;
+                    trackIds.put(track, tid);
+                }
+                json.beginObject();
+                json.name("name").value(name(r.categories[slot], r.subjects[slot]));
+                json.name("cat").value(r.categories[slot]);
+                json.name("ph").value("X");
+                json.name("ts").value((r.starts[slot] - epoch) / 1000.0);
+                json.name("dur").value((r.ends[slot] - r.starts[slot]) / 1000.0);
+                json.name("pid").value(1);
+                json.name("tid").value(tid);
+                json.endObject();
+            }
+        }
+        for (Map.Entry<String, Integer> track : trackIds.entrySet()) {
+            json.beginObject();
+            json.name("name").value("thread_name");
+            json.name("ph").value("M");
+            json.name("pid").value(1);
+            json.name("tid").value(track.getValue());
+            json.name("args").beginObject().name("name").value(track.getKey()).endObject();
+            json.endObject();
+        }
+        json.endArray();
+        json.name("otherData").beginObject().name("droppedSpans").value(getDropped()).endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    private static String name(String category, Object subject) {
+        if (subject == null)
+            return category;
+        if (subject instanceof Class)
+            return ((Class<?>) subject).getSimpleName();
+        if (subject instanceof int[]) {
+            int[] serials = (int[]) subject;
+            if (serials.length <= SHOWN_SERIALS)
+                return category + " " + Arrays.toString(serials);
+            String shown = Arrays.toString(Arrays.copyOf(serials, SHOWN_SERIALS));
+            return category + " " + shown.substring(0, shown.length() - 1) + ", ... (" + serials.length + ")]";
+        }
+        return subject.toString();
+    }
+}
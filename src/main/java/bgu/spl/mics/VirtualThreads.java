@@ -0,0 +1,44 @@
+package bgu.spl.mics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on Java 21 and later.
+ * The Thread.Builder API is reached by reflection, so the framework still compiles
+ * and runs on Java 8, where asking for a virtual thread fails with a clear message.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the running JVM supports virtual threads.
+     */
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a factory of unstarted virtual threads.
+     * @throws UnsupportedOperationException if the running JVM has no virtual threads.
+     */
+    static ThreadFactory factory() {
+        if (!isSupported())
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later, running on Java "
+                    + System.getProperty("java.version"));
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Could not create a virtual thread factory", e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
+import bgu.spl.mics.application.passiveObjects.Serials;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A battle kept in a compact binary file, an attack plan, which is mapped into memory rather than read:
+ * opening a plan reads its header only, and every run decodes the attacks straight from the mapped file
+ * while Leia sends them, so loading a plan takes the same time however many attacks it has.
+ * <p>
+ * A plan starts with a header of {@value #HEADER_SIZE} bytes, in big-endian order:
+ * <ul>
+ *     <li>the magic number {@code EWOK} and the version of the format, a short, followed by two unused bytes.</li>
+ *     <li>the amount of Ewoks and the amount of attackers, ints.</li>
+ *     <li>the durations of R2D2 and Lando, longs.</li>
+ *     <li>the amount of attacks, a long.</li>
+ * </ul>
+ * Every attack follows as a list of unsigned varints, 7 bits per byte with the high bit set on all the
+ * bytes but the last: its duration, the amount of its serials, and then its serials in ascending order,
+ * the first as it is and every other one as the difference from the one before it. An attack that needs
+ * a few Ewoks out of a million therefore takes a handful of bytes.
+ * <p>
+ * A single mapping covers at most 2GB, so a larger plan is mapped in several parts.
+ * Convert an input file to a plan with:
+ * <pre>
+ * java bgu.spl.mics.application.AttackPlan input.json output.plan
+ * </pre>
+ */
+public class AttackPlan {
+    static final int MAGIC = 0x45574F4B; /*"EWOK"*/
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    private static final long MAX_MAPPING = Integer.MAX_VALUE;
+
+    private final String path;
+    private final MappedByteBuffer[] parts;
+    private final int ewoks;
+    private final int attackers;
+    private final long r2d2Duration;
+    private final long landoDuration;
+    private final long attacks;
+
+    private AttackPlan(String path, MappedByteBuffer[] parts, ByteBuffer header) throws IOException {
+        this.path = path;
+        this.parts = parts;
+        if (header.getInt() != MAGIC)
+            throw new IOException(path + " is not an attack plan");
+        short version = header.getShort();
+        if (version != VERSION)
+            throw new IOException(path + " is an attack plan of version " + version + ", we read version " + VERSION);
+        header.getShort();
+        ewoks = header.getInt();
+        attackers = header.getInt();
+        r2d2Duration = header.getLong();
+        landoDuration = header.getLong();
+        attacks = header.getLong();
+    }
+
+    /**
+     * @return true if the file at @param path starts with the magic number of an attack plan.
+     * @throws IOException if the file cannot be read.
+     */
+    public static boolean isPlan(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.available() >= HEADER_SIZE && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * We map the plan at @param path into memory, and read its header.
+     * The file stays mapped, and must not change, for as long as the plan is used.
+     * @return the plan.
+     * @throws IOException if the file cannot be read or is not an attack plan.
+     */
+    public static AttackPlan map(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE)
+                throw new IOException(path + " is not an attack plan");
+            List<MappedByteBuffer> parts = new ArrayList<>();
+            for (long position = HEADER_SIZE; position < size; position += MAX_MAPPING) {
+                parts.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPING, size - position)));
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                channel.read(header, header.position());
+            }
+            header.flip();
+            return new AttackPlan(path, parts.toArray(new MappedByteBuffer[0]), header);
+        }
+    }
+
+    /**
+     * @param window the maximal amount of attacks Leia has sent that have not finished yet.
+     * @return the battle of the plan, which decodes the attacks from the mapped file in every run.
+     */
+    public Battle toBattle(int window) {
+        return Battle.stream(this::open, path, window, ewoks, r2d2Duration, landoDuration, attackers);
+    }
+
+    public long getAttacks() {
+        return attacks;
+    }
+
+    /**
+     * @return a source of the attacks of the plan, from the first one.
+     */
+    AttackSource open() {
+        return new PlanSource();
+    }
+
+    /**
+     * We write @param battle to a plan at @param path. The attacks are read from the battle one at a time,
+     * so a battle streamed from a huge input file is converted without holding its attacks.
+     * @throws IOException if the attacks of the battle cannot be read, or the plan cannot be written.
+     */
+    public static void write(Battle battle, String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             AttackSource source = battle.openAttacks()) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel.position(HEADER_SIZE)), 1 << 16);
+            long attacks = 0;
+            for (Attack attack = source.next(); attack != null; attack = source.next()) {
+                if (attack.getDuration() < 0)
+                    throw new IOException("Attack " + attacks + " has a negative duration");
+                int[] serials = Serials.of(attack.getSerialArray());
+                writeVarint(out, attack.getDuration());
+                writeVarint(out, serials.length);
+                int previous = 0;
+                for (int serial : serials) {
+                    writeVarint(out, serial - previous);
+                    previous = serial;
+                }
+                attacks++;
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+            header.putInt(battle.getEwoks()).putInt(battle.getAttackers());
+            header.putLong(battle.getR2D2Duration()).putLong(battle.getLandoDuration());
+            header.putLong(attacks);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    /**
+     * Converts the input file {@code args[0]} to a plan at {@code args[1]}, see {@link Battle#streamJson(String, int)}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2)
+            throw new IllegalArgumentException("Usage: AttackPlan <input.json> <output.plan>");
+        write(Battle.streamJson(args[0], 1), args[1]);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Decodes the attacks one at a time from its own views of the mapped parts.
+     * A source is read by one thread at a time, see {@link AttackSource}.
+     */
+    private class PlanSource implements AttackSource {
+        private final ByteBuffer[] views;
+        private int part;
+        private long decoded;
+
+        private PlanSource() {
+            views = new ByteBuffer[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                views[i] = parts[i].duplicate();
+            }
+            part = 0;
+            decoded = 0;
+        }
+
+        @Override
+        public Attack next() throws IOException {
+            if (decoded == attacks)
+                return null;
+            int duration = readVarint();
+            int[] serials = new int[readVarint()];
+            int serial = 0;
+            for (int i = 0; i < serials.length; i++) {
+                serial += readVarint();
+                serials[i] = serial;
+            }
+            decoded++;
+            return new Attack(serials, duration);
+        }
+
+        @Override
+        public void close() {
+            decoded = attacks;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IOException("Malformed attack " + decoded + " in " + path);
+        }
+
+        private byte readByte() throws IOException {
+            while (part < views.length && !views[part].hasRemaining()) {
+                part++;
+            }
+            if (part == views.length)
+                throw new IOException(path + " ends before attack " + decoded);
+            return views[part].get();
+        }
+    }
+}
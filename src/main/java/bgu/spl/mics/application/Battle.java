@@ -0,0 +1,311 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.ServiceRuntime;
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
+import bgu.spl.mics.application.passiveObjects.Diary;
+import bgu.spl.mics.application.passiveObjects.Ewoks;
+import bgu.spl.mics.application.services.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single battle: the attacks Leia sends, the amount of Ewoks, the durations of R2D2 and Lando
+ * and the amount of attackers that handle the attacks.
+ * <p>
+ * The first two attackers are Han Solo and C3PO, any further attacker is an
+ * {@link AttackerMicroservice} named {@code Attacker3}, {@code Attacker4} and so on.
+ * <p>
+ * {@link #run(ServiceRuntime)} sets up the Ewoks and the Diary, runs Leia, Han Solo, C3PO,
+ * R2D2 and Lando to the end and reports how the battle went. A battle can be run any number of
+ * times, one run at a time, since all the runs share the Ewoks and the Diary.
+ * <p>
+ * A battle read with {@link #streamJson(String, int)} does not hold its attacks: every run reads them
+ * from the file again while Leia sends them, so the size of the file does not matter. So does a battle
+ * of an {@link AttackPlan}, which decodes them from the mapped plan.
+ */
+public class Battle {
+    private final Attack[] attacks;
+    private final Attacks streamed;
+    private final String attacksPath;
+    private final int window;
+    private final int ewoks;
+    private final long r2d2Duration;
+    private final long landoDuration;
+    private final int attackers;
+    private final boolean scheduled;
+    private final int mailboxCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Opens the attacks of a streamed battle anew for every run.
+     */
+    interface Attacks {
+        AttackSource open() throws IOException;
+    }
+
+    public Battle(Attack[] attacks, int ewoks, long r2d2Duration, long landoDuration) {
+        this(attacks, ewoks, r2d2Duration, landoDuration, 2);
+    }
+
+    public Battle(Attack[] attacks, int ewoks, long r2d2Duration, long landoDuration, int attackers) {
+        this(attacks, null, null, 0, ewoks, r2d2Duration, landoDuration, attackers, false, 0, null);
+    }
+
+    private Battle(Attack[] attacks, Attacks streamed, String attacksPath, int window, int ewoks, long r2d2Duration, long landoDuration,
+                   int attackers, boolean scheduled, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+        if (attackers < 1)
+            throw new IllegalArgumentException("A battle needs at least one attacker");
+        if (overflowPolicy == OverflowPolicy.BLOCK && (scheduled || streamed != null))
+            throw new IllegalArgumentException("Attackers may only block when Leia sends the attacks at once in their input order");
+        this.attacks = attacks;
+        this.streamed = streamed;
+        this.attacksPath = attacksPath;
+        this.window = window;
+        this.ewoks = ewoks;
+        this.r2d2Duration = r2d2Duration;
+        this.landoDuration = landoDuration;
+        this.attackers = attackers;
+        this.scheduled = scheduled;
+        this.mailboxCapacity = mailboxCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @param attackers the amount of attackers.
+     * @return the same battle, fought by {@code attackers} attackers.
+     */
+    public Battle withAttackers(int attackers) {
+        return new Battle(attacks, streamed, attacksPath, window, ewoks, r2d2Duration, landoDuration, attackers, scheduled,
+                mailboxCapacity, overflowPolicy);
+    }
+
+    /**
+     * @param scheduled whether Leia holds back attacks until the attacks that need the same Ewoks
+     *                  before them have finished, or sends all of them at once in their input order (the default).
+     *                  A streamed battle always sends them in their input order.
+     * @return the same battle, with Leia sending the attacks as {@code scheduled} says.
+     */
+    public Battle withScheduling(boolean scheduled) {
+        return new Battle(attacks, streamed, attacksPath, window, ewoks, r2d2Duration, landoDuration, attackers, scheduled,
+                mailboxCapacity, overflowPolicy);
+    }
+
+    /**
+     * @param capacity the maximal amount of attacks waiting in the mailbox of every attacker.
+     * @param policy   what becomes of an attack sent to an attacker whose mailbox is full, see {@link OverflowPolicy}.
+     *                 Leia sends a rejected attack again once an attack succeeds.
+     * @return the same battle, with the mailboxes of the attackers bounded.
+     * @throws IllegalArgumentException for {@link OverflowPolicy#BLOCK} unless Leia sends all the attacks herself, in
+     *                                  their input order: otherwise attackers send attacks too, when their attacks finish,
+     *                                  and two attackers could wait for room in the full mailboxes of each other forever.
+     */
+    public Battle withMailboxes(int capacity, OverflowPolicy policy) {
+        return new Battle(attacks, streamed, attacksPath, window, ewoks, r2d2Duration, landoDuration, attackers, scheduled,
+                capacity, policy);
+    }
+
+    public int getAttackers() {
+        return attackers;
+    }
+
+    public int getEwoks() {
+        return ewoks;
+    }
+
+    public long getR2D2Duration() {
+        return r2d2Duration;
+    }
+
+    public long getLandoDuration() {
+        return landoDuration;
+    }
+
+    /**
+     * We parse a battle from an input file of the form
+     * {@code {"attacks": [{"serials": [1, 2], "duration": 1000}, ...], "R2D2": 2000, "Lando": 1000, "Ewoks": 5}},
+     * which may also give the amount of attackers as {@code "attackers": 8} (2 when it does not).
+     * @param jsonObject the object that has the file data in it.
+     * @return the battle the file describes.
+     */
+    public static Battle fromJson(JsonObject jsonObject) {
+        int ewoks = jsonObject.get("Ewoks").getAsInt();
+        long lando = jsonObject.get("Lando").getAsLong();
+        long r2d2 = jsonObject.get("R2D2").getAsLong();
+
+        JsonArray jsonArray = jsonObject.get("attacks").getAsJsonArray();
+        Attack[] attacks = new Attack[jsonArray.size()];
+        for (int a = 0; a < attacks.length; a++) {
+            JsonObject attack = jsonArray.get(a).getAsJsonObject();
+            JsonArray serialsAsArray = attack.get("serials").getAsJsonArray();
+            int[] serials = new int[serialsAsArray.size()];
+            for (int i = 0; i < serials.length; i++) {
+                serials[i] = serialsAsArray.get(i).getAsInt();
+            }
+            attacks[a] = new Attack(serials, attack.get("duration").getAsInt());
+        }
+        int attackers = jsonObject.has("attackers") ? jsonObject.get("attackers").getAsInt() : 2;
+        return new Battle(attacks, ewoks, r2d2, lando, attackers);
+    }
+
+    /**
+     * We read a battle from an input file like {@link #fromJson(JsonObject)} does, but without its attacks:
+     * every run streams them from the file again, see {@link JsonAttackSource}.
+     * <p>
+     * We read the values before the {@code "attacks"} array with a {@link JsonReader} and stop at the array once
+     * they include Ewoks, R2D2 and Lando, so a file that gives them first is not read any further here. Such a
+     * file gives the amount of attackers before the attacks as well, if at all.
+     * Otherwise we skip over the attacks to the values after them, since the Ewoks must exist before the first
+     * attack is sent. An {@link AttackPlan} always holds them in its header.
+     * @param path   the path to the input file.
+     * @param window the maximal amount of attacks Leia has sent that have not finished yet.
+     * @return the battle the file describes.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Battle streamJson(String path, int window) throws IOException {
+        int ewoks = -1;
+        long lando = -1;
+        long r2d2 = -1;
+        int attackers = 2;
+        try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(path)))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "attacks":
+                        if (ewoks >= 0 && lando >= 0 && r2d2 >= 0)
+                            return stream(() -> new JsonAttackSource(path), path, window, ewoks, r2d2, lando, attackers);
+                        reader.skipValue();
+                        break;
+                    case "Ewoks":
+                        ewoks = reader.nextInt();
+                        break;
+                    case "Lando":
+                        lando = reader.nextLong();
+                        break;
+                    case "R2D2":
+                        r2d2 = reader.nextLong();
+                        break;
+                    case "attackers":
+                        attackers = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+        }
+        if (ewoks < 0 || lando < 0 || r2d2 < 0)
+            throw new IOException("Ewoks, Lando or R2D2 are missing from " + path);
+        return stream(() -> new JsonAttackSource(path), path, window, ewoks, r2d2, lando, attackers);
+    }
+
+    /**
+     * @param attacks opens the attacks for every run.
+     * @param name    where the attacks are read from, for the errors.
+     * @return a battle whose attacks are read while Leia sends them, with at most {@code window} of them unfinished.
+     */
+    static Battle stream(Attacks attacks, String name, int window, int ewoks, long r2d2, long lando, int attackers) {
+        return new Battle(null, attacks, name, window, ewoks, r2d2, lando, attackers, false, 0, null);
+    }
+
+    /**
+     * Runs the battle to the end on {@code runtime}.
+     * We start Leia only after every other microservice has subscribed, so none of her attacks is lost.
+     * <p>
+     * @param runtime the runtime that runs the microservices, it is used for this battle only.
+     * @return the report of the battle, the Diary holds the recordings of the battle as well.
+     * @throws InterruptedException if interrupted while waiting for the battle to end.
+     * @throws UncheckedIOException if the attacks of a streamed battle cannot be read.
+     */
+    public BattleReport run(ServiceRuntime runtime) throws InterruptedException {
+        LeiaMicroservice leia = createLeia();
+        Ewoks.getInstance().clear();
+        Ewoks.getInstance().addEwoks(ewoks);
+        resetDiary();
+
+        List<MicroService> services = new ArrayList<>();
+        services.add(new LandoMicroservice(landoDuration));
+        services.add(new R2D2Microservice(r2d2Duration));
+        services.add(new HanSoloMicroservice());
+        if (attackers > 1)
+            services.add(new C3POMicroservice());
+        for (int i = 3; i <= attackers; i++) {
+            services.add(new AttackerMicroservice("Attacker" + i));
+        }
+        if (overflowPolicy != null) {
+            for (MicroService attacker : services.subList(2, services.size())) {
+                attacker.setMailboxCapacity(mailboxCapacity, overflowPolicy);
+            }
+        }
+        for (MicroService service : services) {
+            runtime.start(service);
+        }
+        for (MicroService service : services) {
+            service.awaitInitialized();
+        }
+
+        services.add(leia);
+        long start = System.nanoTime();
+        runtime.start(leia);
+        runtime.awaitTermination();
+        long makespan = System.nanoTime() - start;
+
+        if (leia.getReadFailure() != null)
+            throw new UncheckedIOException("Cannot read the attacks from " + attacksPath, leia.getReadFailure());
+        return new BattleReport(Diary.getInstance().getTotalAttacks(), makespan, Ewoks.getInstance().getContendedAcquires(),
+                Ewoks.getInstance().getWaitNanos(), services);
+    }
+
+    private LeiaMicroservice createLeia() {
+        if (attacks != null)
+            return new LeiaMicroservice(attacks, scheduled);
+        try {
+            return new LeiaMicroservice(streamed.open(), window);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the attacks from " + attacksPath, e);
+        }
+    }
+
+    /**
+     * @return a source of the attacks of the battle, in their input order.
+     * @throws IOException if the attacks of a streamed battle cannot be read.
+     */
+    AttackSource openAttacks() throws IOException {
+        if (attacks == null)
+            return streamed.open();
+        return new AttackSource() {
+            private int next = 0;
+
+            @Override
+            public Attack next() {
+                return next < attacks.length ? attacks[next++] : null;
+            }
+
+            @Override
+            public void close() {
+                next = attacks.length;
+            }
+        };
+    }
+
+    private static void resetDiary() {
+        Diary diary = Diary.getInstance();
+        diary.setTotalAttacks(0);
+        diary.setR2D2Deactivate(0);
+        diary.setLeiaTerminate(0);
+        diary.setR2D2Terminate(0);
+        diary.setLandoTerminate(0);
+        diary.clearAttackers();
+    }
+}
@@ -0,0 +1,115 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.MicroService;
+
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The measurements of a single run of a {@link Battle}: how long the battle took from the moment
+ * Leia started until every microservice terminated, how much the attacks waited for Ewoks,
+ * and how much of the battle each microservice spent busy or idle.
+ */
+public class BattleReport {
+    private final int attacks;
+    private final long makespanNanos;
+    private final long contendedAcquires;
+    private final long ewokWaitNanos;
+    private final List<ServiceTime> services;
+
+    BattleReport(int attacks, long makespanNanos, long contendedAcquires, long ewokWaitNanos, List<MicroService> services) {
+        this.attacks = attacks;
+        this.makespanNanos = makespanNanos;
+        this.contendedAcquires = contendedAcquires;
+        this.ewokWaitNanos = ewokWaitNanos;
+        List<ServiceTime> times = new ArrayList<>();
+        for (MicroService service : services) {
+            times.add(new ServiceTime(service.getName(), service.getBusyNanos(), service.getIdleNanos()));
+        }
+        this.services = Collections.unmodifiableList(times);
+    }
+
+    public int getAttacks() {
+        return attacks;
+    }
+
+    public long getMakespanNanos() {
+        return makespanNanos;
+    }
+
+    /**
+     * @return the amount of attacks finished per second of the makespan.
+     */
+    public double getAttacksPerSecond() {
+        return attacks * 1e9 / makespanNanos;
+    }
+
+    /**
+     * @return the amount of times an Ewok was acquired after waiting for it to be released.
+     */
+    public long getContendedAcquires() {
+        return contendedAcquires;
+    }
+
+    /**
+     * @return the total time in nanoseconds the attacks spent waiting for Ewoks.
+     */
+    public long getEwokWaitNanos() {
+        return ewokWaitNanos;
+    }
+
+    public List<ServiceTime> getServices() {
+        return services;
+    }
+
+    /**
+     * @return the report as a JsonObject, with the times in milliseconds.
+     */
+    public JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("attacks", attacks);
+        json.addProperty("makespanMs", makespanNanos / 1e6);
+        json.addProperty("attacksPerSecond", getAttacksPerSecond());
+        json.addProperty("ewokContendedAcquires", contendedAcquires);
+        json.addProperty("ewokWaitMs", ewokWaitNanos / 1e6);
+        JsonObject times = new JsonObject();
+        for (ServiceTime service : services) {
+            JsonObject time = new JsonObject();
+            time.addProperty("busyMs", service.getBusyNanos() / 1e6);
+            time.addProperty("idleMs", service.getIdleNanos() / 1e6);
+            times.add(service.getName(), time);
+        }
+        json.add("services", times);
+        return json;
+    }
+
+    /**
+     * The time a single microservice spent busy and idle during the battle.
+     */
+    public static class ServiceTime {
+        private final String name;
+        private final long busyNanos;
+        private final long idleNanos;
+
+        ServiceTime(String name, long busyNanos, long idleNanos) {
+            this.name = name;
+            this.busyNanos = busyNanos;
+            this.idleNanos = idleNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public long getIdleNanos() {
+            return idleNanos;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streams the attacks of an input file, see {@link Battle#fromJson(com.google.gson.JsonObject)},
+ * with a {@link JsonReader}: every call to {@link #next()} reads a single attack from the
+ * {@code "attacks"} array, so the memory used does not depend on the size of the file.
+ * Every other value in the file is skipped.
+ */
+class JsonAttackSource implements AttackSource {
+    private final JsonReader reader;
+    private boolean ended;
+    private int[] serials;
+
+    /**
+     * Opens @param path and moves to the start of its {@code "attacks"} array.
+     * @throws IOException if the file cannot be read or has no {@code "attacks"} array.
+     */
+    JsonAttackSource(String path) throws IOException {
+        reader = new JsonReader(new BufferedReader(new FileReader(path)));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("attacks")) {
+                    reader.beginArray();
+                    ended = false;
+                    serials = new int[8];
+                    return;
+                }
+                reader.skipValue();
+            }
+            throw new IOException("No attacks in " + path);
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Attack next() throws IOException {
+        if (ended)
+            return null;
+        if (!reader.hasNext()) {
+            ended = true;
+            reader.close();
+            return null;
+        }
+        int count = 0;
+        int duration = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "serials":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (count == serials.length)
+                            serials = Arrays.copyOf(serials, 2 * count);
+                        serials[count++] = reader.nextInt();
+                    }
+                    reader.endArray();
+                    break;
+                case "duration":
+                    duration = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Attack(Arrays.copyOf(serials, count), duration);
+    }
+
+    @Override
+    public void close() throws IOException {
+        ended = true;
+        reader.close();
+    }
+}
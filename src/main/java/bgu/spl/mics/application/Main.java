@@ -1,141 +1,235 @@
 package bgu.spl.mics.application;
 
-import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.BusMetrics;
+import bgu.spl.mics.MailboxType;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.OverflowPolicy;
+import bgu.spl.mics.ServiceRuntime;
+import bgu.spl.mics.Tracer;
 import bgu.spl.mics.application.passiveObjects.Diary;
-import bgu.spl.mics.application.passiveObjects.Ewoks;
-import bgu.spl.mics.application.services.*;
 
 import com.google.gson.*;
 
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
 
 /** This is the Main class of the application. You should parse the input file,
  * create the different components of the application, and run the system.
  * In the end, you should output a JSON.
+ * <p>
+ * Usage: {@code Main <input> <output.json> [options]}. The input is either a JSON file or an {@link AttackPlan},
+ * which we tell apart by the magic number of the plan. The options are:
+ * <ul>
+ *     <li>{@code --threads=platform} runs every microservice on its own platform thread (the default).</li>
+ *     <li>{@code --threads=virtual} runs every microservice on its own virtual thread (Java 21 and later).</li>
+ *     <li>{@code --threads=pool} runs all the microservices on a shared pool of threads, scheduling a
+ *     microservice only when it has messages. {@code --pool-size=N} sets the amount of threads (the
+ *     amount of processors by default) and {@code --batch=N} the maximal amount of messages a microservice
+ *     handles per turn (64 by default).</li>
+ *     <li>{@code --attackers=N} runs N attackers instead of the amount the input file gives (2 by default).
+ *     When there are more than two, the output also holds the finish and termination times of every attacker.</li>
+ *     <li>{@code --schedule=longest-first} makes Leia hold back attacks that need the same Ewoks as earlier ones,
+ *     sending the longest first, instead of sending all the attacks at once in their input order
+ *     ({@code --schedule=fifo}, the default).</li>
+ *     <li>{@code --stream=N} streams the attacks from the input file while Leia sends them, with at most N of them
+ *     sent and not finished at a time, instead of reading the whole file first. The memory used then does not depend
+ *     on the amount of attacks. Leia sends streamed attacks in their input order.</li>
+ *     <li>{@code --mailbox=linked} keeps the messages of every mailbox in a linked queue, instead of an array used
+ *     as a ring ({@code --mailbox=ring}, the default), see {@link MailboxType}.</li>
+ *     <li>{@code --mailbox-capacity=N} bounds the mailbox of every attacker to N waiting attacks, and
+ *     {@code --overflow=route|fail|drop-oldest|block} says what becomes of an attack sent to a full mailbox, see
+ *     {@link OverflowPolicy} ({@code route} by default). Leia sends rejected attacks again as attacks succeed.
+ *     {@code block} cannot be used with {@code --schedule=longest-first}, nor with streamed attacks.</li>
+ *     <li>{@code --metrics=text} or {@code --metrics=json} measures the messages the message-bus carries, see
+ *     {@link BusMetrics}, and prints the metrics to the standard error every {@code --metrics-period=N} milliseconds
+ *     (1000 by default, 0 for never) and once more at the end.</li>
+ *     <li>{@code --trace=path} traces the messages, the callbacks and the Ewoks, see {@link Tracer}, and writes the
+ *     trace to the given path as Chrome trace-event JSON at the end, for chrome://tracing or Perfetto to show.
+ *     {@code --trace-capacity=N} sets the amount of spans kept per thread (65536 by default), older ones are dropped.</li>
+ * </ul>
+ * The attacks of a plan are always streamed, from the mapped file, with at most 1024 of them sent and not
+ * finished at a time unless {@code --stream=N} says otherwise.
  */
 public class Main {
 	public static void main(String[] args) {
-		long LandoLong = 0;
-		long R2D2Long = 0;
-		Attack[] attacks = null;
-		Thread LandoThread;
-		Thread R2D2Thread;
-		Thread LeiaThread;
-		Thread C3POThread;
-		Thread HanSoloThread; //First we assign the variables
-
-		//Using a JsonParser we parse the data from the file and insert
-		//it to the right variable.
-		JsonParser parser = new JsonParser();
-		try { /* Parsing the json*/
-			Object obj = parser.parse(new FileReader(args[0]));
-			JsonObject jsonObject = (JsonObject) obj;
-
-			createEwoks(jsonObject);
-
-			LandoLong = jsonObject.get("Lando").getAsLong();
-
-			R2D2Long = jsonObject.get("R2D2").getAsLong();
-
-			attacks = createAttacks(jsonObject);
-		} catch (Exception e) { }
+		ServiceRuntime runtime = createRuntime(args);
+		MessageBusImpl.getInstance().setMailboxType(mailboxType(args));
 
-		//We create every microservice and make a new thread using it.
-		LandoMicroservice Lando = new LandoMicroservice(LandoLong);
-		LandoThread = new Thread(Lando);
-
-		R2D2Microservice R2D2 = new R2D2Microservice(R2D2Long);
-		R2D2Thread = new Thread(R2D2);
-
-		LeiaMicroservice Leia = new LeiaMicroservice(attacks);
-		LeiaThread = new Thread(Leia);
-
-		C3POMicroservice C3PO = new C3POMicroservice();
-		C3POThread = new Thread(C3PO);
-
-		HanSoloMicroservice HanSolo = new HanSoloMicroservice();
-		HanSoloThread = new Thread(HanSolo);
+		//Using a JsonParser we parse the data from the file into a Battle,
+		//or only the data other than the attacks if we stream them.
+		//A plan is mapped, and only its header is read.
+		Battle battle;
+		String stream = option(args, "stream", null);
+		try { /* Parsing the json*/
+			if (AttackPlan.isPlan(args[0]))
+				battle = AttackPlan.map(args[0]).toBattle(Integer.parseInt(stream != null ? stream : "1024"));
+			else if (stream != null)
+				battle = Battle.streamJson(args[0], Integer.parseInt(stream));
+			else
+				battle = parse(args[0]);
+		} catch (IOException | RuntimeException e) {
+			throw new IllegalArgumentException("Cannot read the input file " + args[0], e);
+		}
+		String attackers = option(args, "attackers", null);
+		if (attackers != null)
+			battle = battle.withAttackers(Integer.parseInt(attackers));
+		battle = battle.withScheduling(scheduled(args));
+		String mailboxCapacity = option(args, "mailbox-capacity", null);
+		if (mailboxCapacity != null)
+			battle = battle.withMailboxes(Integer.parseInt(mailboxCapacity), overflowPolicy(args));
 
-		//Setting the threads name, for debugging purposes.
-		LandoThread.setName("Lando");
-		R2D2Thread.setName("R2D2");
-		LeiaThread.setName("Leia");
-		C3POThread.setName("C3PO");
-		HanSoloThread.setName("HanSolo");
+		//The metrics, when asked for, are on before the first microservice starts.
+		String metrics = option(args, "metrics", null);
+		BusMetrics busMetrics = MessageBusImpl.getInstance().getMetrics();
+		boolean json = "json".equals(metrics);
+		if (metrics != null && !json && !"text".equals(metrics))
+			throw new IllegalArgumentException("Unknown --metrics value: " + metrics);
+		if (metrics != null) {
+			long period = Long.parseLong(option(args, "metrics-period", "1000"));
+			busMetrics.setEnabled(true);
+			if (period > 0)
+				busMetrics.startDumping(period, json, System.err);
+		}
 
-		//Starting the threads.
-		LandoThread.start();
-		R2D2Thread.start();
-		C3POThread.start();
-		HanSoloThread.start();
-		LeiaThread.start();
+		//Tracing, when asked for, is on from before the first microservice starts until the last one finished.
+		String trace = option(args, "trace", null);
+		if (trace != null)
+			Tracer.start(Integer.parseInt(option(args, "trace-capacity", String.valueOf(Tracer.DEFAULT_CAPACITY))));
 
-		//Waiting until every thread has finished.
+		//The battle starts every microservice using the runtime and waits until every microservice has finished.
 		try {
-			LandoThread.join();
-			R2D2Thread.join();
-			C3POThread.join();
-			HanSoloThread.join();
-			LeiaThread.join();
+			battle.run(runtime);
 		} catch (InterruptedException e) {
 		}
+		if (metrics != null) {
+			busMetrics.stopDumping();
+			System.err.println(json ? busMetrics.dumpJson() : busMetrics.dumpText());
+		}
+		if (trace != null) {
+			Tracer.stop();
+			try {
+				Tracer.write(Paths.get(trace));
+			} catch (IOException e) {
+				System.err.println("Cannot write the trace to " + trace + ": " + e.getMessage());
+			}
+		}
 
 		//Create the output file, with the path to it.
-		createOutputFile(args[1]);
+		createOutputFile(args[1], battle.getAttackers() > 2);
 	}
 
 	/**
-	 * We parse the amount of ewoks from the file
-	 * and add the same amount to Ewoks.
-	 * @param jsonObject We receive the object that has the file data in it.
-	 *                   We could also have made it static, so to not place it as a parameter.
+	 * We parse the whole file with a JsonParser, and then parse that data to a Battle.
+	 * @param path the path to the input file.
+	 * @return the battle the file describes.
+	 * @throws IOException if the file cannot be read.
 	 */
-	private static void createEwoks(JsonObject jsonObject){
-		int ewoksAmount = jsonObject.get("Ewoks").getAsInt();
-		for (int i = 0; i < ewoksAmount; i++) {
-			Ewoks.getInstance().addEwok();
+	private static Battle parse(String path) throws IOException {
+		JsonParser parser = new JsonParser();
+		try (FileReader reader = new FileReader(path)) {
+			return Battle.fromJson(parser.parse(reader).getAsJsonObject());
 		}
 	}
 
 	/**
-	 * We parse the array from the file as a JsonArray object,
-	 * and then parse that data to our own Attack objects.
-	 * @param jsonObject We receive the object that has the file data in it.
-	 * 	 *               We could also have made it static, so to not place it as a parameter.
-	 * @return the Attack array that Leia uses.
+	 * We look for an option of the form --name=value after the input and output paths.
+	 * @param args the command line arguments.
+	 * @param name the name of the option.
+	 * @param defaultValue the value to use when the option is not given.
+	 * @return the value of the option.
 	 */
-	private static Attack[] createAttacks(JsonObject jsonObject){
-		JsonArray jsonArray = jsonObject.get("attacks").getAsJsonArray();
-		Attack[] attacks = new Attack[jsonArray.size()];
-		int attacksIndex = 0;
-		for (Object o : jsonArray){
-			JsonObject attack = (JsonObject) o;
-
-			int duration = attack.get("duration").getAsInt();
-			JsonArray serialsAsArray = attack.get("serials").getAsJsonArray();
-			List<Integer> serials = new ArrayList<>();
-
-			for (int i = 0; i < serialsAsArray.size(); i++) {
-				serials.add(serialsAsArray.get(i).getAsInt());
-			}
+	private static String option(String[] args, String name, String defaultValue){
+		String prefix = "--" + name + "=";
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith(prefix))
+				return args[i].substring(prefix.length());
+		}
+		return defaultValue;
+	}
 
-			attacks[attacksIndex] = new Attack(serials, duration);
+	/**
+	 * @param args the command line arguments, with the --schedule option.
+	 * @return true if Leia should schedule the attacks, false if she should send them in their input order.
+	 */
+	private static boolean scheduled(String[] args){
+		String schedule = option(args, "schedule", "fifo");
+		switch (schedule) {
+			case "longest-first":
+				return true;
+			case "fifo":
+				return false;
+			default:
+				throw new IllegalArgumentException("Unknown --schedule value: " + schedule);
+		}
+	}
 
-			attacksIndex++;
+	/**
+	 * @param args the command line arguments, with the --mailbox option.
+	 * @return how the mailboxes keep their messages.
+	 */
+	private static MailboxType mailboxType(String[] args){
+		String mailbox = option(args, "mailbox", "ring");
+		switch (mailbox) {
+			case "ring":
+				return MailboxType.RING;
+			case "linked":
+				return MailboxType.LINKED;
+			default:
+				throw new IllegalArgumentException("Unknown --mailbox value: " + mailbox);
+		}
+	}
+
+	/**
+	 * @param args the command line arguments, with the --overflow option.
+	 * @return what becomes of attacks sent to an attacker whose mailbox is full.
+	 */
+	private static OverflowPolicy overflowPolicy(String[] args){
+		String overflow = option(args, "overflow", "route");
+		switch (overflow) {
+			case "block":
+				return OverflowPolicy.BLOCK;
+			case "fail":
+				return OverflowPolicy.FAIL;
+			case "drop-oldest":
+				return OverflowPolicy.DROP_OLDEST;
+			case "route":
+				return OverflowPolicy.ROUTE;
+			default:
+				throw new IllegalArgumentException("Unknown --overflow value: " + overflow);
+		}
+	}
+
+	/**
+	 * @param args the command line arguments, with the --threads option and its related options.
+	 * @return the runtime that runs the microservices.
+	 */
+	private static ServiceRuntime createRuntime(String[] args){
+		String threads = option(args, "threads", "platform");
+		switch (threads) {
+			case "platform":
+				return ServiceRuntime.platformThreads();
+			case "virtual":
+				return ServiceRuntime.virtualThreads();
+			case "pool":
+				int poolSize = Integer.parseInt(option(args, "pool-size", String.valueOf(Runtime.getRuntime().availableProcessors())));
+				int batch = Integer.parseInt(option(args, "batch", "64"));
+				return ServiceRuntime.sharedExecutor(poolSize, batch);
+			default:
+				throw new IllegalArgumentException("Unknown --threads value: " + threads);
 		}
-		return attacks;
 	}
 
 	/**
 	 * We create a JsonObject and add the Diary data to it,
 	 * we then write that object to a file.
 	 * @param path the path to the output file.
+	 * @param allAttackers whether to add the times of every attacker, by its name.
 	 */
-	private static void createOutputFile(String path){
+	private static void createOutputFile(String path, boolean allAttackers){
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.add("totalAttacks", new JsonPrimitive(Diary.getInstance().getTotalAttacks()));
 		jsonObject.add("HanSoloFinish", new JsonPrimitive(Diary.getInstance().getHanSoloFinish()));
@@ -146,10 +240,27 @@ public class Main {
 		jsonObject.add("C3POTerminate", new JsonPrimitive(Diary.getInstance().getC3POTerminate()));
 		jsonObject.add("R2D2Terminate", new JsonPrimitive(Diary.getInstance().getR2D2Terminate()));
 		jsonObject.add("LandoTerminate", new JsonPrimitive(Diary.getInstance().getLandoTerminate()));
+		if (allAttackers) {
+			jsonObject.add("AttackerFinish", toJson(Diary.getInstance().getAttackerFinish()));
+			jsonObject.add("AttackerTerminate", toJson(Diary.getInstance().getAttackerTerminate()));
+		}
 		try {
 			FileWriter file = new FileWriter(path);
 			file.write(jsonObject.toString());
 			file.close();
 		} catch (IOException e) { }
 	}
+
+	/**
+	 * We add every time to a JsonObject under its name, sorted by the names.
+	 * @param times the times by the names of the attackers.
+	 * @return the JsonObject holding the times.
+	 */
+	private static JsonObject toJson(Map<String, Long> times){
+		JsonObject jsonObject = new JsonObject();
+		for (Map.Entry<String, Long> time : new TreeMap<>(times).entrySet()) {
+			jsonObject.add(time.getKey(), new JsonPrimitive(time.getValue()));
+		}
+		return jsonObject;
+	}
 }
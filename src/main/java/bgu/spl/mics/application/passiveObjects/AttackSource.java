@@ -0,0 +1,17 @@
+package bgu.spl.mics.application.passiveObjects;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of attacks that hands them out one at a time, so the attacks of a battle never
+ * all have to be in memory at once. A source is read by one thread at a time.
+ */
+public interface AttackSource extends Closeable {
+
+    /**
+     * @return the next attack, or null once there are no more attacks.
+     * @throws IOException if the attacks cannot be read.
+     */
+    Attack next() throws IOException;
+}
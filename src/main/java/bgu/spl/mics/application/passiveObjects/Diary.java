@@ -1,52 +1,68 @@
 package bgu.spl.mics.application.passiveObjects;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Passive data-object representing a Diary - in which the flow of the battle is recorded.
  * We are going to compare your recordings with the expected recordings, and make sure that your output makes sense.
  * <p>
- * Do not add to this class nothing but a single constructor, getters and setters.
+ * Do not add to this class nothing but a single constructor, getters and setters,
+ * and {@link #clearAttackers()}, which a battle needs to forget the attackers of the one before it.
+ * <p>
+ * The Diary records the finish and termination times of every attacker by its name, see
+ * {@link bgu.spl.mics.application.services.AttackerMicroservice}. The recordings of Han Solo and C3PO are
+ * those of the attackers named {@code Han} and {@code C3PO}, which their getters read.
+ * <p>
+ * Every attacker records every attack it finishes, so recording an attack takes no lock: the attacks
+ * are counted by a {@link LongAdder}, which spreads the count over cells for the threads that add to it
+ * at once, and every attacker keeps its finish time in an {@link AtomicLong} of its own, which only its
+ * first recording creates. Every time is written to a volatile field or an atomic one, so the times read
+ * after the battle are those the microservices wrote.
  */
 public class Diary {
-    private int totalAttacks;
-    private long HanSoloFinish;
-    private long C3POFinish;
-    private long R2D2Deactivate;
-    private long LeiaTerminate;
-    private long HanSoloTerminate;
-    private long C3POTerminate;
-    private long R2D2Terminate;
-    private long LandoTerminate;
-    private static Diary instance = null;
+    private static final String HAN_SOLO = "Han";
+    private static final String C3PO = "C3PO";
+    private final LongAdder totalAttacks;
+    private volatile long R2D2Deactivate;
+    private volatile long LeiaTerminate;
+    private volatile long R2D2Terminate;
+    private volatile long LandoTerminate;
+    private final Map<String, AtomicLong> attackerFinish;
+    private final Map<String, AtomicLong> attackerTerminate;
+
+    private static class SingletonHolder {
+        private static Diary instance = new Diary();
+    }
 
     private Diary(){
-        totalAttacks = 0;
-        HanSoloFinish = 0;
-        C3POFinish = 0;
+        totalAttacks = new LongAdder();
         R2D2Deactivate = 0;
         LeiaTerminate = 0;
-        HanSoloTerminate = 0;
-        C3POTerminate = 0;
         R2D2Terminate = 0;
         LandoTerminate = 0;
+        attackerFinish = new ConcurrentHashMap<>();
+        attackerTerminate = new ConcurrentHashMap<>();
     }
 
     public static Diary getInstance(){
-        if(instance == null)
-            instance = new Diary();
-        return instance;
-    }
-
-    public synchronized void addAttack(){
-        totalAttacks++;
+        return Diary.SingletonHolder.instance;
     }
 
-    public void setHanSoloFinish(long finish){
-        HanSoloFinish = finish;
+    public void addAttack(){
+        totalAttacks.increment();
     }
 
-    public void setC3POFinish(long finish){
-        C3POFinish = finish;
+    /**
+     * Only call it while no attack is recorded, between battles.
+     */
+    public void setTotalAttacks(int totalAttacks){
+        this.totalAttacks.reset();
+        this.totalAttacks.add(totalAttacks);
     }
 
     public void setR2D2Deactivate(long r2D2Deactivate) {
@@ -57,14 +73,6 @@ public class Diary {
         LeiaTerminate = leiaTerminate;
     }
 
-    public void setHanSoloTerminate(long hanSoloTerminate) {
-        HanSoloTerminate = hanSoloTerminate;
-    }
-
-    public void setC3POTerminate(long c3POTerminate) {
-        C3POTerminate = c3POTerminate;
-    }
-
     public void setR2D2Terminate(long r2D2Terminate) {
         R2D2Terminate = r2D2Terminate;
     }
@@ -73,16 +81,37 @@ public class Diary {
         LandoTerminate = landoTerminate;
     }
 
+    public void setAttackerFinish(String attacker, long finish) {
+        AtomicLong time = attackerFinish.get(attacker);
+        if (time == null)
+            time = attackerFinish.computeIfAbsent(attacker, a -> new AtomicLong());
+        time.set(finish);
+    }
+
+    public void setAttackerTerminate(String attacker, long terminate) {
+        attackerTerminate.computeIfAbsent(attacker, a -> new AtomicLong()).set(terminate);
+    }
+
+    /**
+     * Forgets the recordings of all the attackers, before a new battle.
+     */
+    public void clearAttackers() {
+        attackerFinish.clear();
+        attackerTerminate.clear();
+    }
+
     public int getTotalAttacks() {
-        return totalAttacks;
+        return totalAttacks.intValue();
     }
 
     public long getHanSoloFinish() {
-        return HanSoloFinish;
+        AtomicLong time = attackerFinish.get(HAN_SOLO);
+        return time == null ? 0 : time.get();
     }
 
     public long getC3POFinish() {
-        return C3POFinish;
+        AtomicLong time = attackerFinish.get(C3PO);
+        return time == null ? 0 : time.get();
     }
 
     public long getR2D2Deactivate() {
@@ -94,11 +123,13 @@ public class Diary {
     }
 
     public long getHanSoloTerminate() {
-        return HanSoloTerminate;
+        AtomicLong time = attackerTerminate.get(HAN_SOLO);
+        return time == null ? 0 : time.get();
     }
 
     public long getC3POTerminate() {
-        return C3POTerminate;
+        AtomicLong time = attackerTerminate.get(C3PO);
+        return time == null ? 0 : time.get();
     }
 
     public long getR2D2Terminate() {
@@ -108,4 +139,22 @@ public class Diary {
     public long getLandoTerminate() {
         return LandoTerminate;
     }
+
+    /**
+     * @return the time every attacker finished its last attack, by the name of the attacker.
+     */
+    public Map<String, Long> getAttackerFinish() {
+        Map<String, Long> finish = new TreeMap<>();
+        attackerFinish.forEach((attacker, time) -> finish.put(attacker, time.get()));
+        return Collections.unmodifiableMap(finish);
+    }
+
+    /**
+     * @return the time every attacker terminated, by the name of the attacker.
+     */
+    public Map<String, Long> getAttackerTerminate() {
+        Map<String, Long> terminate = new TreeMap<>();
+        attackerTerminate.forEach((attacker, time) -> terminate.put(attacker, time.get()));
+        return Collections.unmodifiableMap(terminate);
+    }
 }
@@ -1,37 +1,84 @@
 package bgu.spl.mics.application.passiveObjects;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * Passive data-object representing a forest creature summoned when HanSolo and C3PO receive AttackEvents.
  * You must not alter any of the given public methods of this class.
  * <p>
  * You may add fields and methods to this class as you see fit (including public methods).
+ * <p>
+ * Waiting for an Ewok uses a lock and a condition rather than the object's monitor,
+ * so a virtual thread waiting for an Ewok does not pin its carrier thread.
+ * <p>
+ * An Ewok returned by {@link Ewoks#getEwok(int)} is only a view: it has no state of its own,
+ * and acquires and releases the Ewok through {@link Ewoks}.
  */
 public class Ewok {
 	int serialNumber;
 	boolean available;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private final Ewoks owner;
 
     public Ewok(int serialNumber){
+        this(serialNumber, null);
+    }
+
+    Ewok(int serialNumber, Ewoks owner){
         this.serialNumber = serialNumber;
+        this.owner = owner;
         available = true;
     }
   
     /**
      * Acquires an Ewok
      */
-    public synchronized void acquire() {
-        while(!available) {
-            try {
-                wait();
-            } catch (InterruptedException e) { }
+    public void acquire() {
+        if (owner != null) {
+            owner.acquireEwok(serialNumber);
+            return;
+        }
+        lock.lock();
+        try {
+            while(!available) {
+                released.awaitUninterruptibly();
+            }
+            available = false;
+        } finally {
+            lock.unlock();
         }
-        available = false;
     }
 
     /**
      * release an Ewok
      */
-    public synchronized void release() {
-    	available = true;
-    	notifyAll();
+    public void release() {
+        if (owner != null) {
+            owner.releaseEwok(serialNumber);
+            return;
+        }
+        lock.lock();
+        try {
+            available = true;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if this Ewok is not acquired.
+     */
+    public boolean isAvailable() {
+        if (owner != null)
+            return owner.isAvailable(serialNumber);
+        lock.lock();
+        try {
+            return available;
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -1,7 +1,16 @@
 package bgu.spl.mics.application.passiveObjects;
 
-import java.util.ArrayList;
+import bgu.spl.mics.Tracer;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Passive object representing the resource manager.
@@ -9,18 +18,59 @@ import java.util.List;
  * This class must be implemented as a thread-safe singleton.
  * You must not alter any of the given public methods of this class.
  * <p>
- * You can add ONLY private methods and fields to this class.
+ * An attack acquires all the Ewoks it needs at once with {@link #acquireAll(Collection)}: either it gets
+ * every one of them, or it waits without holding any, so attacks never deadlock whatever order
+ * their serials are in. Waiting requests are served in the order they arrived, and a request
+ * reserves the Ewoks it waits for, so a later request that needs any of them waits behind it.
+ * A later request that needs none of them does not wait for it.
+ * <p>
+ * Which Ewoks are acquired is kept in a bitset of 64 Ewoks per word, so a million Ewoks take 125KB.
+ * While no request is waiting, acquiring and releasing take no lock: they set or clear the bits of
+ * each word with a single compare-and-set. An acquire that finds any of its Ewoks taken clears the
+ * bits it already set and falls back to waiting, under a lock, with a condition of its own, so a
+ * release wakes only the requests it lets through. A release takes the lock only when some request
+ * is waiting.
+ * <p>
+ * The Ewoks are not objects of their own, {@link #getEwok(int)} returns a view of a single Ewok.
+ * <p>
+ * While the {@link Tracer} is on, acquiring and releasing Ewoks are traced, waiting included.
  */
 public class Ewoks {
-    private List<Ewok> ewoks;
-    private int serialNumbers = 1;
+    private static final int WORD_BITS = 64;
+    private volatile AtomicLongArray acquired;
+    private volatile int count;
+    private volatile int waiters;
+    private final ReentrantLock lock;
+    private final List<Request> waiting;
+    private long contendedAcquires;
+    private long waitNanos;
 
     private static class SingletonHolder {
         private static Ewoks instance = new Ewoks();
     }
 
+    /**
+     * A request waiting for Ewoks. {@code granted} is set, under the lock, once the Ewoks were
+     * acquired on behalf of the request.
+     */
+    private static class Request {
+        private final int[] serials;
+        private final Condition condition;
+        private boolean granted;
+
+        private Request(int[] serials, Condition condition) {
+            this.serials = serials;
+            this.condition = condition;
+            granted = false;
+        }
+    }
+
     private Ewoks(){
-        ewoks = new ArrayList();
+        acquired = new AtomicLongArray(0);
+        count = 0;
+        waiters = 0;
+        lock = new ReentrantLock();
+        waiting = new LinkedList<>();
     }
 
     public static Ewoks getInstance(){
@@ -28,15 +78,272 @@ public class Ewoks {
     }
 
     public void addEwok(){
-        ewoks.add(new Ewok(serialNumbers));
-        serialNumbers++;
+        addEwoks(1);
+    }
+
+    /**
+     * Adds @param amount available Ewoks, with the serial numbers following the last Ewok added.
+     * Only call it while no Ewok is acquired, before a battle.
+     */
+    public void addEwoks(int amount){
+        lock.lock();
+        try {
+            int words = (count + amount + WORD_BITS - 1) / WORD_BITS;
+            AtomicLongArray current = acquired;
+            if (words > current.length()) {
+                AtomicLongArray grown = new AtomicLongArray(Math.max(words, 2 * current.length()));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                acquired = grown;
+            }
+            count += amount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a view of the Ewok with serial number @param serial, which acquires and releases it through Ewoks.
+     */
+    public Ewok getEwok(int serial){
+        check(serial);
+        return new Ewok(serial, this);
+    }
+
+    /**
+     * @return true if the Ewok with serial number @param serial is not acquired.
+     */
+    public boolean isAvailable(int serial){
+        check(serial);
+        return (acquired.get(word(serial)) & bit(serial)) == 0;
     }
 
     public void acquireEwok(int serial){
-        ewoks.get(serial - 1).acquire();
+        acquireAll(new int[] {serial});
     }
 
     public void releaseEwok(int serial){
-        ewoks.get(serial - 1).release();
+        releaseAll(new int[] {serial});
+    }
+
+    /**
+     * Acquires all the Ewoks with the given serial numbers at once, waiting until every one of them
+     * is available. While waiting, the caller holds none of them.
+     * @param serials the serial numbers of the Ewoks, in any order.
+     */
+    public void acquireAll(Collection<Integer> serials){
+        acquireAll(Serials.of(serials));
+    }
+
+    /**
+     * Like {@link #acquireAll(Collection)}, for serial numbers kept as an array, see {@link Serials}.
+     * @param serials the serial numbers of the Ewoks, in any order. When they are sorted without repeats
+     *                they are used as they are, otherwise we sort a copy of them.
+     */
+    public void acquireAll(int[] serials){
+        long traced = Tracer.begin();
+        int[] wanted = checked(Serials.of(serials));
+        if (waiters > 0 || !tryAcquire(wanted))
+            await(wanted);
+        Tracer.end("acquireEwoks", wanted, traced);
+    }
+
+    /**
+     * Waits in line until all the Ewoks with the sorted serial numbers @param wanted are acquired on our behalf.
+     */
+    private void await(int[] wanted){
+        lock.lock();
+        try {
+            Request request = new Request(wanted, lock.newCondition());
+            waiting.add(request);
+            waiters++;
+            grantWaiting();
+            if (request.granted)
+                return;
+            contendedAcquires++;
+            long waitStart = System.nanoTime();
+            while (!request.granted) {
+                request.condition.awaitUninterruptibly();
+            }
+            waitNanos += System.nanoTime() - waitStart;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases all the Ewoks with the given serial numbers, and hands them to the waiting requests
+     * that can now acquire all the Ewoks they need.
+     * @param serials the serial numbers of the Ewoks, in any order.
+     */
+    public void releaseAll(Collection<Integer> serials){
+        releaseAll(Serials.of(serials));
+    }
+
+    /**
+     * Like {@link #releaseAll(Collection)}, for serial numbers kept as an array, see {@link Serials}.
+     * @param serials the serial numbers of the Ewoks, in any order.
+     */
+    public void releaseAll(int[] serials){
+        long traced = Tracer.begin();
+        int[] released = checked(Serials.of(serials));
+        release(acquired, released, released.length);
+        /*a waiter counts itself before it looks at the bits, and we cleared them before looking
+          at the waiters, so either it sees them available or we see it waiting*/
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                grantWaiting();
+            } finally {
+                lock.unlock();
+            }
+        }
+        Tracer.end("releaseEwoks", released, traced);
+    }
+
+    /**
+     * Removes all the Ewoks, so the next Ewok added gets serial number 1 again.
+     * Only call it while no Ewok is acquired, between battles.
+     */
+    public void clear(){
+        lock.lock();
+        try {
+            acquired = new AtomicLongArray(0);
+            count = 0;
+            contendedAcquires = 0;
+            waitNanos = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of requests for Ewoks that had to wait.
+     */
+    public long getContendedAcquires(){
+        lock.lock();
+        try {
+            return contendedAcquires;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total time in nanoseconds requests spent waiting for Ewoks.
+     */
+    public long getWaitNanos(){
+        lock.lock();
+        try {
+            return waitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Goes over the waiting requests in the order they arrived. A request whose Ewoks are not reserved
+     * by an earlier request, and which manages to acquire them all, is woken up. Any other request
+     * reserves its Ewoks against the requests after it.
+     * Must be called while holding the lock.
+     */
+    private void grantWaiting(){
+        Map<Integer, Long> reserved = new HashMap<>();
+        for (Iterator<Request> it = waiting.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (!reserved(reserved, request.serials) && tryAcquire(request.serials)) {
+                request.granted = true;
+                request.condition.signal();
+                it.remove();
+                waiters--;
+            } else {
+                for (int serial : request.serials) {
+                    reserved.merge(word(serial), bit(serial), (a, b) -> a | b);
+                }
+            }
+        }
+    }
+
+    private static boolean reserved(Map<Integer, Long> reserved, int[] serials){
+        if (reserved.isEmpty())
+            return false;
+        for (int serial : serials) {
+            Long bits = reserved.get(word(serial));
+            if (bits != null && (bits & bit(serial)) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the bits of the sorted @param serials word by word. If any of them is already set, we clear
+     * the bits we set in the earlier words, so the Ewoks are acquired either all or none.
+     * @return true if all the Ewoks were acquired.
+     */
+    private boolean tryAcquire(int[] serials){
+        AtomicLongArray bitset = acquired;
+        int i = 0;
+        while (i < serials.length) {
+            int first = i;
+            int word = word(serials[i]);
+            long bits = 0;
+            for (; i < serials.length && word(serials[i]) == word; i++) {
+                bits |= bit(serials[i]);
+            }
+            for (;;) {
+                long current = bitset.get(word);
+                if ((current & bits) != 0) {
+                    release(bitset, serials, first);
+                    return false;
+                }
+                if (bitset.compareAndSet(word, current, current | bits))
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the bits of the first @param end of the sorted @param serials, word by word.
+     */
+    private static void release(AtomicLongArray bitset, int[] serials, int end){
+        int i = 0;
+        while (i < end) {
+            int word = word(serials[i]);
+            long bits = 0;
+            for (; i < end && word(serials[i]) == word; i++) {
+                bits |= bit(serials[i]);
+            }
+            for (;;) {
+                long current = bitset.get(word);
+                if (bitset.compareAndSet(word, current, current & ~bits))
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the sorted @param serials, once we checked they all exist.
+     */
+    private int[] checked(int[] serials){
+        if (serials.length > 0) {
+            check(serials[0]);
+            check(serials[serials.length - 1]);
+        }
+        return serials;
+    }
+
+    private void check(int serial){
+        if (serial < 1 || serial > count)
+            throw new IllegalArgumentException("There is no Ewok with serial number " + serial);
+    }
+
+    private static int word(int serial){
+        return (serial - 1) / WORD_BITS;
+    }
+
+    private static long bit(int serial){
+        return 1L << ((serial - 1) % WORD_BITS);
     }
 }
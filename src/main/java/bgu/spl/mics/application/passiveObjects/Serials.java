@@ -0,0 +1,82 @@
+package bgu.spl.mics.application.passiveObjects;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Serial numbers of Ewoks kept as a sorted {@code int[]} without repeats, which is how attacks hold
+ * them from parsing to acquiring the Ewoks. Three serials then take a 24-byte array instead of a list
+ * of boxed Integers, and acquiring them needs no sorting and no unboxing.
+ */
+public final class Serials {
+
+    private Serials() {
+    }
+
+    /**
+     * @param serials serial numbers in any order, possibly with repeats.
+     * @return the serial numbers sorted without repeats; {@code serials} itself if it already is.
+     */
+    public static int[] of(int[] serials) {
+        if (isSorted(serials))
+            return serials;
+        int[] sorted = serials.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[n - 1] != sorted[i])
+                sorted[n++] = sorted[i];
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * @param serials serial numbers in any order, possibly with repeats.
+     * @return the serial numbers sorted without repeats.
+     */
+    public static int[] of(Collection<Integer> serials) {
+        int[] values = new int[serials.size()];
+        int i = 0;
+        for (Integer serial : serials) {
+            values[i++] = serial;
+        }
+        return of(values);
+    }
+
+    /**
+     * @param serials sorted serial numbers.
+     * @return an unmodifiable list view of {@code serials}.
+     */
+    public static List<Integer> asList(int[] serials) {
+        return new ListView(serials);
+    }
+
+    private static boolean isSorted(int[] serials) {
+        for (int i = 1; i < serials.length; i++) {
+            if (serials[i - 1] >= serials[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static class ListView extends AbstractList<Integer> implements RandomAccess {
+        private final int[] serials;
+
+        private ListView(int[] serials) {
+            this.serials = serials;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return serials[index];
+        }
+
+        @Override
+        public int size() {
+            return serials.length;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.Future;
+import bgu.spl.mics.application.passiveObjects.Attack;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decides when Leia sends each of her attacks, so attacks that need the same Ewoks are never sent
+ * at the same time. Sending them together would leave attackers blocked on Ewoks while attacks that
+ * need other Ewoks wait behind them in the attackers' queues.
+ * <p>
+ * We order the attacks longest first, breaking ties by the amount of Ewoks they need and then by
+ * their input order, and line every attack up in a queue per Ewok it needs. An attack is sent once it
+ * is first in line for all of its Ewoks, and it leaves the lines once its Future is resolved, which
+ * lets the attacks behind it move up. Attacks that are sent together therefore never share an Ewok,
+ * and among attacks that do, the longer ones go first. This is list scheduling over the conflict
+ * graph of the attacks, without building the graph: the lines hold only its edges between
+ * neighbours in the order.
+ * <p>
+ * The scheduler is driven by the resolution of the Futures, so it runs in the threads of the
+ * attackers, never blocking them.
+ */
+class AttackScheduler {
+    private final Function<Attack, Future<Boolean>> sender;
+    private final List<Node> first;
+    private final Map<Integer, ArrayDeque<Node>> lines;
+
+    /**
+     * An attack and the amount of lines it is not yet first in.
+     */
+    private static class Node {
+        private final Attack attack;
+        private final int[] serials;
+        private int blocked;
+
+        private Node(Attack attack) {
+            this.attack = attack;
+            serials = attack.getSerialArray();
+            blocked = 0;
+        }
+    }
+
+    /**
+     * @param attacks the attacks to send.
+     * @param send    sends an attack, and returns the Future of its event, or null if no one handles it.
+     */
+    AttackScheduler(Attack[] attacks, Function<Attack, Future<Boolean>> send) {
+        sender = send;
+        first = new ArrayList<>();
+        lines = new HashMap<>();
+
+        Node[] nodes = new Node[attacks.length];
+        for (int i = 0; i < attacks.length; i++) {
+            nodes[i] = new Node(attacks[i]);
+        }
+        /*a stable sort, so equal attacks keep their input order*/
+        Arrays.sort(nodes, Comparator.comparingInt((Node n) -> n.attack.getDuration())
+                .thenComparingInt(n -> n.serials.length).reversed());
+        for (Node node : nodes) {
+            for (int serial : node.serials) {
+                ArrayDeque<Node> line = lines.computeIfAbsent(serial, s -> new ArrayDeque<>());
+                if (!line.isEmpty())
+                    node.blocked++;
+                line.add(node);
+            }
+            if (node.blocked == 0)
+                first.add(node);
+        }
+    }
+
+    /**
+     * Sends every attack that does not wait for another attack. The rest are sent as the attacks
+     * before them finish.
+     */
+    void start() {
+        send(first);
+    }
+
+    /**
+     * Sends @param nodes. An attack whose Future is already resolved, or that no one handles, is
+     * finished right away, and the attacks it lets through are sent by the same loop.
+     */
+    private void send(List<Node> nodes) {
+        ArrayDeque<Node> toSend = new ArrayDeque<>(nodes);
+        while (!toSend.isEmpty()) {
+            Node node = toSend.poll();
+            Future<Boolean> future = sender.apply(node.attack);
+            if (future == null || future.isDone())
+                toSend.addAll(finished(node));
+            else
+                future.thenAccept(result -> send(finished(node)));
+        }
+    }
+
+    /**
+     * Takes @param node out of its lines.
+     * @return the attacks that are now first in all their lines.
+     */
+    private synchronized List<Node> finished(Node node) {
+        List<Node> released = new ArrayList<>();
+        for (int serial : node.serials) {
+            ArrayDeque<Node> line = lines.get(serial);
+            line.poll();
+            Node next = line.peek();
+            if (next != null && --next.blocked == 0)
+                released.add(next);
+        }
+        return released;
+    }
+}
@@ -0,0 +1,100 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.Future;
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
+
+import java.io.IOException;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Sends the attacks of an {@link AttackSource} as they are read, keeping at most {@code window}
+ * of them unfinished at any time. Leia reads and sends the first {@code window} attacks, and from
+ * then on every attack that finishes reads and sends the next one, in the thread that resolved its
+ * Future. The memory the attacks take is therefore bounded by the window, however many attacks
+ * the source has, and nothing ever blocks waiting for the window to open.
+ * <p>
+ * The attacks are sent in the order of the source. A source that fails to read ends the stream
+ * as if it had no more attacks, and the failure is kept for {@link #getFailure()}.
+ */
+class AttackStream {
+    private final AttackSource source;
+    private final Function<Attack, Future<Boolean>> sender;
+    private final int window;
+    private final IntConsumer allSent;
+    private boolean ended;
+    private int sent;
+    private IOException failure;
+
+    /**
+     * @param source  the attacks to send.
+     * @param send    sends an attack, and returns the Future of its event, or null if no one handles it.
+     * @param window  the maximal amount of attacks sent and not finished yet.
+     * @param allSent called with the amount of attacks sent, once the source has no more attacks.
+     */
+    AttackStream(AttackSource source, Function<Attack, Future<Boolean>> send, int window, IntConsumer allSent) {
+        if (window < 1)
+            throw new IllegalArgumentException("The window must hold at least one attack");
+        this.source = source;
+        sender = send;
+        this.window = window;
+        this.allSent = allSent;
+        ended = false;
+        sent = 0;
+    }
+
+    /**
+     * Sends the first attacks, as many as the window holds.
+     */
+    void start() {
+        send(window);
+    }
+
+    /**
+     * @return the failure that ended the stream, null if it ended because the source had no more attacks.
+     */
+    synchronized IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Reads and sends @param attacks attacks. An attack whose Future is already resolved, or that no one
+     * handles, does not take up the window, so we read another one in its place.
+     */
+    private void send(int attacks) {
+        int toSend = attacks;
+        while (toSend > 0) {
+            Attack attack = next();
+            if (attack == null)
+                return;
+            Future<Boolean> future = sender.apply(attack);
+            if (future == null || future.isDone())
+                continue;
+            future.thenAccept(result -> send(1));
+            toSend--;
+        }
+    }
+
+    private synchronized Attack next() {
+        if (ended)
+            return null;
+        Attack attack;
+        try {
+            attack = source.next();
+        } catch (IOException e) {
+            failure = e;
+            attack = null;
+            try {
+                source.close();
+            } catch (IOException ignored) { }
+        }
+        if (attack == null) {
+            ended = true;
+            allSent.accept(sent);
+            return null;
+        }
+        sent++;
+        return attack;
+    }
+}
@@ -0,0 +1,69 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.AttackEvent;
+import bgu.spl.mics.application.messages.AttackSucceededBroadcast;
+import bgu.spl.mics.application.messages.BombDetonatedBroadcast;
+import bgu.spl.mics.application.passiveObjects.Diary;
+import bgu.spl.mics.application.passiveObjects.Ewoks;
+
+/**
+ * AttackerMicroservice is in charge of handling {@link AttackEvent}s, together with every other attacker.
+ * Han Solo and C3PO are attackers, and a battle may add more of them, so more attacks run at once.
+ * The {@link Diary} records the finish and termination times of every attacker by its name.
+ * <p>
+ * This class may not hold references for objects which it is not responsible for:
+ * {@link AttackEvent}.
+ */
+public class AttackerMicroservice extends MicroService {
+
+    public AttackerMicroservice(String name) {
+        super(name);
+    }
+
+    /**
+     * An attacker subscribes to 2 messages:
+     * 1. BombDetonatedBroadcast, which Lando sends and this informs the attacker to terminate.
+     * 2. AttackEvent, which Leia sends, the attacker acquires all the correct ewoks at once
+     *    and then sleeps for the correct amount of time. Then it releases the ewoks and completes the attack.
+     *
+     * The attacker sends a broadcast every time it finished an attack, to inform Leia.
+     */
+    @Override
+    protected void initialize() {
+        subscribeBroadcast(BombDetonatedBroadcast.class, (BombDetonatedBroadcast b) -> {
+            terminate();
+        });
+
+        subscribeEvent(AttackEvent.class, (AttackEvent attackEvent) -> {
+            //We acquire all the ewoks at once, so we never hold some of them
+            //while waiting for the others, whatever order the serials are in.
+            Ewoks.getInstance().acquireAll(attackEvent.getSerialArray());
+
+            try {
+                Thread.sleep((long)attackEvent.getDuration());
+            } catch (InterruptedException e) { }
+
+            //We release the ewoks before completing the attack, so whatever waits for
+            //the attack to finish finds its ewoks available.
+            Ewoks.getInstance().releaseAll(attackEvent.getSerialArray());
+
+            Diary.getInstance().addAttack();
+            finished(System.currentTimeMillis());
+            complete(attackEvent, true);
+            sendBroadcast(new AttackSucceededBroadcast());
+        });
+    }
+
+    /**
+     * Records in the Diary that this attacker finished an attack at @param time.
+     */
+    protected void finished(long time) {
+        Diary.getInstance().setAttackerFinish(getName(), time);
+    }
+
+    @Override
+    protected void close() {
+        Diary.getInstance().setAttackerTerminate(getName(), System.currentTimeMillis());
+    }
+}
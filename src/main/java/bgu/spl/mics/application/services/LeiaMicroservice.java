@@ -1,10 +1,15 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.Future;
 import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.*;
 import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
 import bgu.spl.mics.application.passiveObjects.Diary;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -18,11 +23,58 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class LeiaMicroservice extends MicroService {
 	private Attack[] attacks;
 	private AtomicInteger attacksSucceeded;
+	private volatile int totalAttacks;
+	private boolean scheduled;
+	private AttackSource source;
+	private int window;
+	private AttackStream stream;
+	private final Deque<Rejected> rejected = new ArrayDeque<>();
+	private volatile int held;
+	private boolean draining;
+	private boolean retry;
+
+	/**
+	 * An attack whose event was rejected since the mailboxes of the attackers were full, see
+	 * {@link bgu.spl.mics.OverflowPolicy}, and the Future Leia returned for it instead.
+	 */
+	private static class Rejected {
+		private final Attack attack;
+		private final Future<Boolean> future;
+
+		private Rejected(Attack attack) {
+			this.attack = attack;
+			future = new Future<>();
+		}
+	}
 	
     public LeiaMicroservice(Attack[] attacks) {
+        this(attacks, false);
+    }
+
+    /**
+     * @param attacks   the attacks Leia sends.
+     * @param scheduled whether Leia sends attacks that need the same Ewoks one after the other, see
+     *                  {@link AttackScheduler}, or sends all of them at once in their input order.
+     */
+    public LeiaMicroservice(Attack[] attacks, boolean scheduled) {
         super("Leia");
 		this.attacks = attacks;
         attacksSucceeded = new AtomicInteger(0);
+        totalAttacks = attacks.length;
+        this.scheduled = scheduled;
+    }
+
+    /**
+     * @param source the attacks Leia sends, read while she sends them, see {@link AttackStream}.
+     * @param window the maximal amount of attacks Leia has sent that have not finished yet.
+     */
+    public LeiaMicroservice(AttackSource source, int window) {
+        super("Leia");
+        attacksSucceeded = new AtomicInteger(0);
+        totalAttacks = -1; /*unknown until the source has no more attacks*/
+        scheduled = false;
+        this.source = source;
+        this.window = window;
     }
 
     /**
@@ -33,31 +85,134 @@ public class LeiaMicroservice extends MicroService {
      *    receives the same amount as the attacks she had issued, she informs R2D2 that
      *    it can deactivate the shields using a DeactivationEvent.
      *
-     * Leia sends all of her attacks using the sendEvent function.
+     * Leia sends all of her attacks using the sendEvent function, so she must be started only
+     * once the other microservices have subscribed, see {@link MicroService#awaitInitialized()}.
+     * Unless she sends them in their input order, an {@link AttackScheduler} holds back each attack
+     * until the attacks that need the same Ewoks before it have finished.
+     * When Leia reads her attacks from an {@link AttackSource}, she only knows how many attacks there are
+     * once the source has no more of them, which is always before the last of them succeeds.
+     * <p>
+     * When the mailboxes of the attackers are bounded, an attack may be rejected since they are full.
+     * Leia then holds it, and every attack held after it, and sends them again in order every time an
+     * attack succeeds, which makes room. So she sends attacks only as fast as the attackers take them.
+     * A single thread at a time sends the held attacks, see {@link #sendRejected()}.
      */
     @Override
     protected void initialize() {
-        try {
-            //Making Leia sleep for a few milliseconds so that other microservices will have the time to subscribe to events/broadcasts.
-            Thread.sleep(700);
-        } catch (InterruptedException e) { }
-
         subscribeBroadcast(BombDetonatedBroadcast.class, (BombDetonatedBroadcast b) -> {
             terminate();
         });
 
         subscribeBroadcast(AttackSucceededBroadcast.class, (AttackSucceededBroadcast b) -> {
-            attacksSucceeded.compareAndSet(attacksSucceeded.intValue(), attacksSucceeded.intValue() + 1);
-
-            if(attacksSucceeded.intValue() == attacks.length) {
+            if(attacksSucceeded.incrementAndGet() == totalAttacks) {
                 sendEvent(new DeactivationEvent());
             }
+            if (held > 0)
+                sendRejected();
         });
 
+        if (source != null) {
+            stream = new AttackStream(source, this::sendAttack, window, this::allSent);
+            stream.start();
+            return;
+        }
+        if (scheduled) {
+            new AttackScheduler(attacks, this::sendAttack).start();
+            return;
+        }
         for(int i = 0; i < attacks.length; i++){
-            AttackEvent attackEvent = new AttackEvent(attacks[i].getSerials(), attacks[i].getDuration());
-            sendEvent(attackEvent);
+            sendAttack(attacks[i]);
+        }
+    }
+
+    /**
+     * @return the failure that stopped Leia from reading all her attacks, or null if she read all of them.
+     */
+    public IOException getReadFailure() {
+        return stream == null ? null : stream.getFailure();
+    }
+
+    /**
+     * Called once the source has no more attacks, before the last of them succeeded
+     * unless there were none.
+     */
+    private void allSent(int sent) {
+        totalAttacks = sent;
+        if (sent == 0)
+            sendEvent(new DeactivationEvent());
+    }
+
+    /**
+     * Sends @param attack, unless earlier attacks are held, in which case it is held behind them.
+     * @return the Future of the attack, or null if no one handles attacks.
+     */
+    private Future<Boolean> sendAttack(Attack attack) {
+        if (held == 0) {
+            Future<Boolean> future = send(attack);
+            if (future == null || !future.isRejected())
+                return future;
+        }
+        Rejected waiting = new Rejected(attack);
+        boolean first;
+        synchronized (rejected) {
+            first = rejected.isEmpty();
+            rejected.addLast(waiting);
+            held = rejected.size();
         }
+        if (first)
+            sendRejected();
+        return waiting.future;
+    }
+
+    /**
+     * Sends the held attacks in order, until one of them is rejected again. Both Leia and the threads that
+     * send attacks for her call it, so a single one of them at a time sends the held attacks, and any other
+     * leaves it a note to try once more. An attack stays held until its send has finished, so an attack
+     * sent meanwhile does not pass it. If an attack is rejected again and no attack succeeded while we sent
+     * it, the mailbox that turned it away still holds attacks, and the first of them to succeed sends it once more.
+     */
+    private void sendRejected() {
+        synchronized (rejected) {
+            if (draining) {
+                retry = true;
+                return;
+            }
+            draining = true;
+            retry = false;
+        }
+        for (;;) {
+            Rejected next;
+            synchronized (rejected) {
+                next = rejected.peekFirst();
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            Future<Boolean> future = send(next.attack);
+            if (future != null && future.isRejected()) {
+                synchronized (rejected) {
+                    if (!retry) {
+                        draining = false;
+                        return;
+                    }
+                    retry = false;
+                }
+                continue;
+            }
+            synchronized (rejected) {
+                rejected.pollFirst();
+                held = rejected.size();
+            }
+            if (future == null)
+                next.future.resolve(null);
+            else
+                future.thenAccept(next.future::resolve);
+        }
+    }
+
+    private Future<Boolean> send(Attack attack) {
+        return sendEvent(new AttackEvent(attack.getSerialArray(), attack.getDuration()));
     }
 
     @Override
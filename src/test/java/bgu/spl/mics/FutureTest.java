@@ -7,7 +7,9 @@ import org.junit.jupiter.api.AfterAll;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -56,4 +58,63 @@ public class FutureTest {
         future.resolve("foo");
         assertEquals(future.get(100,TimeUnit.MILLISECONDS),"foo");
     }
+
+    @Test
+    public void testGetWithTimeOutReturnsOnResolve() throws InterruptedException
+    {
+        Thread resolver = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) { }
+            future.resolve("foo");
+        });
+        long start = System.nanoTime();
+        resolver.start();
+        assertEquals("foo", future.get(10, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        resolver.join();
+    }
+
+    @Test
+    public void testThenApply()
+    {
+        Future<Integer> length = future.thenApply(String::length);
+        assertFalse(length.isDone());
+        future.resolve("foo");
+        assertTrue(length.isDone());
+        assertEquals(3, length.get());
+    }
+
+    @Test
+    public void testThenAccept()
+    {
+        AtomicReference<String> seen = new AtomicReference<>();
+        Future<Void> after = future.thenAccept(seen::set);
+        assertNull(seen.get());
+        future.resolve("foo");
+        assertEquals("foo", seen.get());
+        assertTrue(after.isDone());
+
+        Future<String> rejected = new Future<>();
+        Future<Void> skipped = rejected.thenAccept(seen::set);
+        rejected.reject(new IllegalStateException());
+        assertEquals("foo", seen.get());
+        assertTrue(skipped.isRejected());
+    }
+
+    @Test
+    public void testCompletableFutureInterop()
+    {
+        CompletableFuture<String> completable = future.toCompletableFuture();
+        completable.complete("bar");
+        assertFalse(future.isDone());
+        future.resolve("foo");
+        assertEquals("bar", completable.join());
+
+        CompletableFuture<String> source = new CompletableFuture<>();
+        Future<String> wrapped = Future.of(source);
+        assertFalse(wrapped.isDone());
+        source.complete("baz");
+        assertEquals("baz", wrapped.get());
+    }
 }
@@ -4,10 +4,23 @@ import bgu.spl.mics.application.messages.AttackEvent;
 import bgu.spl.mics.application.passiveObjects.Attack;
 import bgu.spl.mics.application.services.C3POMicroservice;
 import bgu.spl.mics.application.services.HanSoloMicroservice;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class MessageBusImplTest {
@@ -213,4 +226,789 @@ class MessageBusImplTest {
         assertTrue(f.isDone());
         assertTrue(f.get());
     }
-}
\ No newline at end of file
+
+    private static class BatchBroadcast implements Broadcast {
+    }
+
+    /*
+    This test tests taking several messages at once.
+    Three broadcasts wait in the queue of m1, a batch of two takes the first two in order,
+    and the next batch takes the last one.
+     */
+    @Test
+    void awaitMessages() throws InterruptedException {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Broadcast[] sent = {new BatchBroadcast(), new BatchBroadcast(), new BatchBroadcast()};
+        bus.register(m1);
+        bus.subscribeBroadcast(BatchBroadcast.class, m1);
+        for (Broadcast b : sent) {
+            bus.sendBroadcast(b);
+        }
+        Message[] batch = new Message[2];
+        assertEquals(2, bus.awaitMessages(m1, batch));
+        assertSame(sent[0], batch[0]);
+        assertSame(sent[1], batch[1]);
+        assertEquals(1, bus.awaitMessages(m1, batch));
+        assertSame(sent[2], batch[0]);
+    }
+
+    /*
+    This test tests that the message-bus stops holding a Future once it is no longer needed.
+    The Future of a completed event is released by complete, and the Future of an event
+    that was still waiting in a mailbox is resolved with null and released by unregister.
+     */
+    @Test
+    void pendingFutures() {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        int pendingBefore = bus.getPendingFutureCount();
+        AttackEvent e1 = new AttackEvent();
+        AttackEvent e2 = new AttackEvent();
+        messageBus.register(m1);
+        messageBus.subscribeEvent(e1.getClass(), m1);
+        Future<Boolean> f1 = messageBus.sendEvent(e1);
+        Future<Boolean> f2 = messageBus.sendEvent(e2);
+        assertEquals(pendingBefore + 2, bus.getPendingFutureCount());
+        messageBus.complete(e1, true);
+        assertTrue(f1.get());
+        assertEquals(pendingBefore + 1, bus.getPendingFutureCount());
+        messageBus.unregister(m1);
+        assertTrue(f2.isDone());
+        assertNull(f2.get());
+        assertEquals(pendingBefore, bus.getPendingFutureCount());
+    }
+
+    private static class LoadEvent implements Event<Boolean> {
+    }
+
+    /*
+    This test tests subscribing with a dispatch strategy other than round-robin.
+    With the least-loaded strategy, events go to the MicroService with the shorter queue:
+    after m1 already holds two events, the next two events both go to m2.
+     */
+    @Test
+    void leastLoadedDispatch() throws InterruptedException {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(LoadEvent.class, m1, DispatchStrategies.leastLoaded());
+        LoadEvent[] sent = new LoadEvent[4];
+        for (int i = 0; i < 2; i++) {
+            sent[i] = new LoadEvent();
+            bus.sendEvent(sent[i]);
+        }
+        bus.subscribeEvent(LoadEvent.class, m2);
+        for (int i = 2; i < 4; i++) {
+            sent[i] = new LoadEvent();
+            bus.sendEvent(sent[i]);
+        }
+        assertSame(sent[0], bus.awaitMessage(m1));
+        assertSame(sent[1], bus.awaitMessage(m1));
+        assertSame(sent[2], bus.awaitMessage(m2));
+        assertSame(sent[3], bus.awaitMessage(m2));
+    }
+
+    private static class KeyedEvent implements Event<Boolean> {
+        private final int[] serials;
+
+        KeyedEvent(int... serials) {
+            this.serials = serials;
+        }
+
+        int[] getSerials() {
+            return serials;
+        }
+    }
+
+    /*
+    This test tests the sticky-by-key strategy with arrays of serials as keys. Every event has an array
+    of its own, but all of them hold the same serials, so all of them go to the same MicroService.
+     */
+    @Test
+    void stickyByKeyDispatch() throws InterruptedException {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(KeyedEvent.class, m1, DispatchStrategies.stickyByKey(KeyedEvent::getSerials));
+        bus.subscribeEvent(KeyedEvent.class, m2);
+        for (int i = 0; i < 8; i++) {
+            bus.sendEvent(new KeyedEvent(1, 2, 3));
+        }
+        assertEquals(8, Math.max(bus.getQueueDepth(m1), bus.getQueueDepth(m2)));
+    }
+
+    private static class StealableEvent implements Event<Boolean> {
+    }
+
+    /*
+    This test tests work stealing between subscribers of the same event type.
+    The events are dispatched in a round-robin fashion, so m1 receives e1 and e3 and m2 receives e2.
+    After m2 takes e2 its mailbox is empty, so instead of waiting it takes e1 and then e3, which are
+    still waiting in the mailbox of m1. The broadcast sent to m1 is never taken by m2.
+     */
+    @Test
+    void workStealing() throws InterruptedException {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Broadcast b = new Broadcast() {};
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(StealableEvent.class, m1);
+        bus.subscribeEvent(StealableEvent.class, m2);
+        bus.subscribeBroadcast(b.getClass(), m1);
+        bus.setWorkStealing(StealableEvent.class, true);
+        StealableEvent e1 = new StealableEvent();
+        StealableEvent e2 = new StealableEvent();
+        StealableEvent e3 = new StealableEvent();
+        bus.sendBroadcast(b);
+        bus.sendEvent(e1);
+        bus.sendEvent(e2);
+        bus.sendEvent(e3);
+        assertSame(e2, bus.awaitMessage(m2));
+        assertSame(e1, bus.awaitMessage(m2));
+        assertSame(e3, bus.awaitMessage(m2));
+        assertSame(b, bus.awaitMessage(m1));
+        bus.setWorkStealing(StealableEvent.class, false);
+    }
+
+    private static class BaseEvent implements Event<Boolean> {
+    }
+
+    private static class DerivedEvent extends BaseEvent {
+    }
+
+    private static class OwnRouteEvent extends BaseEvent {
+    }
+
+    /*
+    This test tests subclass routing. m1 subscribes to BaseEvent and m2 to OwnRouteEvent.
+    A DerivedEvent has no subscribers of its own, so it is dropped until subclass routing is
+    enabled for BaseEvent, and then it goes to m1. An OwnRouteEvent keeps going to m2 only,
+    since it has subscribers of its own.
+    m1 subscribed through the message-bus only, so it has no callback to handle a DerivedEvent with,
+    which fails every time it is asked to.
+     */
+    @Test
+    void subclassRouting() throws InterruptedException {
+        m1 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("basic microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(BaseEvent.class, m1);
+        bus.subscribeEvent(OwnRouteEvent.class, m2);
+        assertNull(bus.sendEvent(new DerivedEvent()));
+
+        bus.setSubclassRouting(BaseEvent.class, true);
+        try {
+            DerivedEvent derived = new DerivedEvent();
+            OwnRouteEvent own = new OwnRouteEvent();
+            assertNotNull(bus.sendEvent(derived));
+            assertNotNull(bus.sendEvent(own));
+            assertSame(derived, bus.awaitMessage(m1));
+            assertSame(own, bus.awaitMessage(m2));
+        } finally {
+            bus.setSubclassRouting(BaseEvent.class, false);
+        }
+        assertThrows(IllegalStateException.class, () -> m1.handle(new DerivedEvent()));
+        assertThrows(IllegalStateException.class, () -> m1.handle(new DerivedEvent()));
+    }
+
+    private static class MeasuredEvent implements Event<Boolean> {
+    }
+
+    private static class MeasuredBroadcast implements Broadcast {
+    }
+
+    /*
+    This test tests the metrics of the message-bus. With the metrics on, we send two events to m1 and a
+    broadcast to both m1 and m2, so m1 holds three messages at most. Every message taken counts as delivered,
+    the broadcast once per receiver, and completing an event records how long its Future took, once even if
+    it is completed again. The messages
+    taken are the ones we sent, not their envelopes. An event sent after the metrics are off is not counted.
+    The metrics of m2 are kept once it unregisters.
+     */
+    @Test
+    void metrics() throws InterruptedException {
+        m1 = new MicroService("measured microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("measured microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        BusMetrics metrics = bus.getMetrics();
+        metrics.reset();
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(MeasuredEvent.class, m1);
+        bus.subscribeBroadcast(MeasuredBroadcast.class, m1);
+        bus.subscribeBroadcast(MeasuredBroadcast.class, m2);
+        metrics.setEnabled(true);
+        try {
+            MeasuredEvent e1 = new MeasuredEvent();
+            MeasuredEvent e2 = new MeasuredEvent();
+            MeasuredBroadcast b = new MeasuredBroadcast();
+            Future<Boolean> f1 = bus.sendEvent(e1);
+            bus.sendEvent(e2);
+            bus.sendBroadcast(b);
+            assertSame(e1, bus.awaitMessage(m1));
+            bus.complete(e1, true);
+            assertTrue(f1.get());
+            f1.resolve(false);
+            assertTrue(f1.get());
+            assertSame(e2, bus.awaitMessage(m1));
+            assertSame(b, bus.awaitMessage(m1));
+            assertSame(b, bus.awaitMessage(m2));
+
+            BusMetrics.MessageTypeStats events = metrics.getMessageTypes().get(MeasuredEvent.class.getName());
+            assertEquals(2, events.getSends());
+            assertEquals(2, events.getDeliveries());
+            assertEquals(2, events.getQueueLatency().getCount());
+            assertEquals(1, events.getResolveLatency().getCount());
+            BusMetrics.MessageTypeStats broadcasts = metrics.getMessageTypes().get(MeasuredBroadcast.class.getName());
+            assertEquals(1, broadcasts.getSends());
+            assertEquals(2, broadcasts.getDeliveries());
+            BusMetrics.ServiceStats first = metrics.getServices().get("measured microservice");
+            assertEquals(3, first.getDeliveries());
+            assertEquals(3, first.getQueueHighWater());
+            assertEquals(0, first.getQueueDepth());
+            assertEquals(1, metrics.getServices().get("measured microservice#2").getDeliveries());
+        } finally {
+            metrics.setEnabled(false);
+        }
+        bus.sendEvent(new MeasuredEvent());
+        assertEquals(2, metrics.getMessageTypes().get(MeasuredEvent.class.getName()).getSends());
+        bus.unregister(m2);
+        m2 = null;
+        assertEquals(1, metrics.getServices().get("measured microservice#2").getDeliveries());
+        assertEquals(0, metrics.getServices().get("measured microservice#2").getQueueDepth());
+        metrics.reset();
+    }
+
+    /*
+    This test tests bounded mailboxes. m1 holds two messages at most and fails fast, so the third event sent
+    to it is rejected while the queue depth stays 2. m2 drops the oldest broadcast, so of three broadcasts it keeps
+    the last two. Once m1 routes to m2 instead, an event that m1 has no room for goes to m2, and one that neither
+    has room for is rejected.
+     */
+    @Test
+    void boundedMailboxes() throws InterruptedException {
+        m1 = new MicroService("bounded microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        m2 = new MicroService("bounded microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        m1.setMailboxCapacity(2, OverflowPolicy.FAIL);
+        m2.setMailboxCapacity(2, OverflowPolicy.DROP_OLDEST);
+        bus.register(m1);
+        bus.register(m2);
+        bus.subscribeEvent(MeasuredEvent.class, m1);
+        assertFalse(bus.sendEvent(new MeasuredEvent()).isRejected());
+        assertFalse(bus.sendEvent(new MeasuredEvent()).isRejected());
+        Future<Boolean> rejected = bus.sendEvent(new MeasuredEvent());
+        assertTrue(rejected.isRejected());
+        assertTrue(rejected.isDone());
+        assertThrows(CompletionException.class, rejected::get);
+        assertEquals(2, bus.getQueueDepth(m1));
+        assertEquals(2, bus.getQueueDepth(MeasuredEvent.class));
+
+        bus.subscribeBroadcast(MeasuredBroadcast.class, m2);
+        MeasuredBroadcast b1 = new MeasuredBroadcast();
+        MeasuredBroadcast b2 = new MeasuredBroadcast();
+        MeasuredBroadcast b3 = new MeasuredBroadcast();
+        bus.sendBroadcast(b1);
+        bus.sendBroadcast(b2);
+        bus.sendBroadcast(b3);
+        assertSame(b2, bus.awaitMessage(m2));
+        assertSame(b3, bus.awaitMessage(m2));
+
+        bus.unregister(m1);
+        m1.setMailboxCapacity(1, OverflowPolicy.ROUTE);
+        bus.register(m1);
+        bus.subscribeEvent(MeasuredEvent.class, m1);
+        bus.subscribeEvent(MeasuredEvent.class, m2);
+        MeasuredEvent[] events = {new MeasuredEvent(), new MeasuredEvent(), new MeasuredEvent(), new MeasuredEvent()};
+        for (int i = 0; i < 3; i++) {
+            assertFalse(bus.sendEvent(events[i]).isRejected());
+        }
+        assertTrue(bus.sendEvent(events[3]).isRejected());
+        assertEquals(1, bus.getQueueDepth(m1));
+        assertEquals(2, bus.getQueueDepth(m2));
+    }
+
+    /*
+    This test tests a mailbox that blocks its senders. m1 holds a single message, so a second broadcast
+    waits in the sending thread until m1 takes the first one, and is then added.
+     */
+    @Test
+    void blockingMailbox() throws InterruptedException {
+        m1 = new MicroService("blocking microservice") {
+            @Override
+            protected void initialize() {
+
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        m1.setMailboxCapacity(1, OverflowPolicy.BLOCK);
+        bus.register(m1);
+        bus.subscribeBroadcast(MeasuredBroadcast.class, m1);
+        MeasuredBroadcast first = new MeasuredBroadcast();
+        MeasuredBroadcast second = new MeasuredBroadcast();
+        bus.sendBroadcast(first);
+        Thread sender = new Thread(() -> bus.sendBroadcast(second));
+        sender.start();
+        sender.join(200);
+        assertTrue(sender.isAlive());
+        assertEquals(1, bus.getQueueDepth(m1));
+        assertSame(first, bus.awaitMessage(m1));
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertSame(second, bus.awaitMessage(m1));
+    }
+
+    /*
+    This test tests the mailboxes of both types. m1 gets more broadcasts than the largest ring of its mailbox holds,
+    and takes them in the order they were sent, through all the rings its mailbox grew into.
+    m2 has a bounded mailbox that drops the oldest broadcast, which is taken out of the middle of the ring,
+    behind a waiting event.
+     */
+    @Test
+    void mailboxTypes() throws InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        for (MailboxType type : MailboxType.values()) {
+            bus.setMailboxType(type);
+            m1 = new MicroService("ring microservice") {
+                @Override
+                protected void initialize() {
+
+                }
+
+                @Override
+                protected void close(){
+
+                }
+            };
+            m2 = new MicroService("ring microservice") {
+                @Override
+                protected void initialize() {
+
+                }
+
+                @Override
+                protected void close(){
+
+                }
+            };
+            m2.setMailboxCapacity(2, OverflowPolicy.DROP_OLDEST);
+            bus.register(m1);
+            bus.register(m2);
+            bus.subscribeBroadcast(MeasuredBroadcast.class, m1);
+            MeasuredBroadcast[] sent = new MeasuredBroadcast[RingMessageQueue.MAX_SIZE + 100];
+            for (int i = 0; i < sent.length; i++) {
+                sent[i] = new MeasuredBroadcast();
+                bus.sendBroadcast(sent[i]);
+            }
+            for (MeasuredBroadcast b : sent) {
+                assertSame(b, bus.awaitMessage(m1));
+            }
+            assertEquals(0, bus.getQueueDepth(m1));
+
+            bus.unregister(m1);
+            bus.subscribeEvent(MeasuredEvent.class, m2);
+            bus.subscribeBroadcast(MeasuredBroadcast.class, m2);
+            MeasuredEvent e = new MeasuredEvent();
+            MeasuredBroadcast b1 = new MeasuredBroadcast();
+            MeasuredBroadcast b2 = new MeasuredBroadcast();
+            bus.sendEvent(e);
+            bus.sendBroadcast(b1);
+            bus.sendBroadcast(b2);
+            assertSame(e, bus.awaitMessage(m2));
+            assertSame(b2, bus.awaitMessage(m2));
+            bus.unregister(m2);
+        }
+        bus.setMailboxType(MailboxType.RING);
+        m1 = null;
+        m2 = null;
+    }
+
+    private static class NumberedEvent implements Event<Boolean> {
+        private final int number;
+
+        NumberedEvent(int number) {
+            this.number = number;
+        }
+    }
+
+    private static class EqualEvent implements Event<Boolean> {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EqualEvent;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    /*
+    This test tests that a ring grows and takes messages by identity. Three equal events do not fit in
+    the first ring of 2 slots, so the third goes to a ring linked behind it. Removing the third one
+    removes that very event, and the owner then takes the other two in order.
+     */
+    @Test
+    void ringGrowthAndIdentity() {
+        RingMessageQueue ring = new RingMessageQueue(2);
+        EqualEvent e1 = new EqualEvent();
+        EqualEvent e2 = new EqualEvent();
+        EqualEvent e3 = new EqualEvent();
+        ring.add(e1);
+        ring.add(e2);
+        ring.add(e3);
+        assertTrue(ring.remove(e3));
+        assertFalse(ring.remove(e3));
+        assertSame(e1, ring.poll());
+        assertSame(e2, ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    /*
+    This test tests taking messages out of the middle of a ring while its senders go round it.
+    A sender sends numbered events to rings of 4 slots, the owner polls them and another thread steals them,
+    yielding before each one it takes so the sender and the owner go round the ring meanwhile.
+    Every event is taken once, and the owner and the thief each take them in the order they were sent.
+     */
+    @Test
+    void ringStealingWraparound() throws InterruptedException {
+        RingMessageQueue ring = new RingMessageQueue(4);
+        int count = 5000;
+        AtomicInteger taken = new AtomicInteger();
+        AtomicIntegerArray takes = new AtomicIntegerArray(count);
+        AtomicInteger thiefDisorder = new AtomicInteger();
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                while (i - taken.get() >= 4)
+                    Thread.yield();
+                ring.add(new NumberedEvent(i));
+            }
+        });
+        Thread thief = new Thread(() -> {
+            int last = -1;
+            while (taken.get() < count) {
+                Message m = ring.removeFirst(waiting -> {
+                    Thread.yield();
+                    return true;
+                });
+                if (m != null) {
+                    int number = ((NumberedEvent) m).number;
+                    if (number < last)
+                        thiefDisorder.incrementAndGet();
+                    last = number;
+                    takes.incrementAndGet(number);
+                    taken.incrementAndGet();
+                }
+            }
+        });
+        sender.start();
+        thief.start();
+        int last = -1;
+        while (taken.get() < count) {
+            Message m = ring.poll();
+            if (m != null) {
+                int number = ((NumberedEvent) m).number;
+                assertTrue(number > last, number + " after " + last);
+                last = number;
+                takes.incrementAndGet(number);
+                taken.incrementAndGet();
+            }
+        }
+        sender.join(5000);
+        thief.join(5000);
+        assertFalse(sender.isAlive());
+        assertFalse(thief.isAlive());
+        assertEquals(0, thiefDisorder.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, takes.get(i));
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    /*
+    This test tests the tracer. With tracing on, m1 sends an event to itself, takes it and handles it,
+    which records a sendEvent, an awaitMessage and a callback span, all on the track of m1.
+    The Chrome trace written holds the three spans and the name of the track, and nothing is dropped.
+    A span recorded after tracing stopped is left out.
+     */
+    @Test
+    void tracing() throws InterruptedException, IOException {
+        m1 = new MicroService("traced microservice") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(MeasuredEvent.class, e -> complete(e, true));
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        Tracer.start(4);
+        try {
+            m1.start();
+            Future<Boolean> f = bus.sendEvent(new MeasuredEvent());
+            m1.handle(bus.awaitMessage(m1));
+            assertTrue(f.get());
+        } finally {
+            Tracer.stop();
+        }
+        bus.sendEvent(new MeasuredEvent());
+        StringWriter out = new StringWriter();
+        Tracer.write(out);
+
+        JsonObject trace = new JsonParser().parse(out.toString()).getAsJsonObject();
+        Map<String, String> spans = new HashMap<>();
+        String track = null;
+        for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+            JsonObject event = element.getAsJsonObject();
+            if (event.get("ph").getAsString().equals("X")) {
+                spans.put(event.get("cat").getAsString(), event.get("name").getAsString());
+                assertEquals(1, event.get("tid").getAsInt());
+                assertTrue(event.get("dur").getAsDouble() >= 0);
+            } else {
+                track = event.getAsJsonObject("args").get("name").getAsString();
+            }
+        }
+        assertEquals("MeasuredEvent", spans.get("sendEvent"));
+        assertEquals("awaitMessage", spans.get("awaitMessage"));
+        assertEquals("MeasuredEvent", spans.get("callback"));
+        assertEquals(3, spans.size());
+        assertEquals("traced microservice", track);
+        assertEquals(0, trace.getAsJsonObject("otherData").get("droppedSpans").getAsLong());
+    }
+
+    /*
+    This test tests the handoff to a parked receiver. The receiver runs in its own thread and parks in
+    awaitMessage whenever it has nothing to do. Before every event we wait until it parks, so each event
+    has to wake it up, and it completes every one of them.
+     */
+    @Test
+    void awaitMessageHandoff() throws InterruptedException {
+        m1 = new MicroService("handoff microservice") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(MeasuredEvent.class, (MeasuredEvent e) -> complete(e, true));
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        Thread receiver = new Thread(m1);
+        receiver.start();
+        while (messageBus.sendEvent(new MeasuredEvent()) == null) { /*the receiver has not subscribed yet*/
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 10; i++) {
+            while (receiver.getState() != Thread.State.WAITING) { /*let the receiver park before the next event*/
+                Thread.sleep(1);
+            }
+            assertEquals(Boolean.TRUE, messageBus.sendEvent(new MeasuredEvent()).get(5, TimeUnit.SECONDS));
+        }
+        messageBus.unregister(m1);
+        m1 = null;
+        receiver.interrupt();
+        receiver.join(5000);
+        assertFalse(receiver.isAlive());
+    }
+
+    /*
+    This test tests a micro-service whose callback throws while it runs on a shared pool. It is stopped,
+    so the event left in its mailbox is resolved with null, no more events are sent to it, and the runtime
+    counts it as terminated. The exception reaches the thread of the pool.
+     */
+    @Test
+    void failingActor() throws InterruptedException {
+        m1 = new MicroService("failing microservice") {
+            @Override
+            protected void initialize() {
+                subscribeEvent(MeasuredEvent.class, (MeasuredEvent e) -> {
+                    throw new IllegalStateException("failing callback");
+                });
+            }
+
+            @Override
+            protected void close(){
+
+            }
+        };
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> thrown.set(e));
+        try {
+            ServiceRuntime runtime = ServiceRuntime.sharedExecutor(1, 1);
+            runtime.start(m1);
+            m1.awaitInitialized();
+            messageBus.sendEvent(new MeasuredEvent());
+            Future<Boolean> left = messageBus.sendEvent(new MeasuredEvent());
+            runtime.awaitTermination();
+            assertTrue(left == null || left.isDone());
+            assertNull(messageBus.sendEvent(new MeasuredEvent()));
+            for (int i = 0; i < 500 && thrown.get() == null; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals("failing callback", thrown.get().getMessage());
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+        }
+    }
+}
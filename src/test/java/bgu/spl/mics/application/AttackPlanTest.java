@@ -0,0 +1,48 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.passiveObjects.Attack;
+import bgu.spl.mics.application.passiveObjects.AttackSource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttackPlanTest {
+
+    /*
+    We write a battle to a plan and map it back. The header keeps the Ewoks, the attackers and the
+    durations of R2D2 and Lando, and the attacks come back in their order, with their serials sorted.
+    Serials far apart and long durations take several bytes, which checks the varints.
+     */
+    @Test
+    void roundTrip(@TempDir Path dir) throws IOException {
+        Attack[] attacks = {
+                new Attack(new int[] {3, 1}, 1000),
+                new Attack(new int[0], 0),
+                new Attack(new int[] {1, 70000, 200}, Integer.MAX_VALUE)
+        };
+        String path = dir.resolve("battle.plan").toString();
+        AttackPlan.write(new Battle(attacks, 70000, 2000, 500, 4), path);
+
+        assertTrue(AttackPlan.isPlan(path));
+        AttackPlan plan = AttackPlan.map(path);
+        assertEquals(3, plan.getAttacks());
+        Battle battle = plan.toBattle(16);
+        assertEquals(70000, battle.getEwoks());
+        assertEquals(4, battle.getAttackers());
+        assertEquals(2000, battle.getR2D2Duration());
+        assertEquals(500, battle.getLandoDuration());
+
+        try (AttackSource source = plan.open()) {
+            for (Attack expected : attacks) {
+                Attack attack = source.next();
+                assertArrayEquals(expected.getSerialArray(), attack.getSerialArray());
+                assertEquals(expected.getDuration(), attack.getDuration());
+            }
+            assertNull(source.next());
+        }
+    }
+}
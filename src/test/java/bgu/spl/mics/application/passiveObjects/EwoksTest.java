@@ -0,0 +1,107 @@
+package bgu.spl.mics.application.passiveObjects;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EwoksTest {
+    Ewoks ewoks;
+
+    @BeforeEach
+    void setUp() {
+        ewoks = Ewoks.getInstance();
+        ewoks.clear();
+        for (int i = 0; i < 4; i++) {
+            ewoks.addEwok();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        ewoks.clear();
+    }
+
+    /*
+    We hold Ewok 2, so a request for Ewoks 1 and 2 waits. A request for Ewok 3 does not conflict with it
+    and goes through, while a later request for Ewok 1 waits behind the earlier request, even though
+    Ewok 1 is available. Releasing Ewok 2 lets the first request through, and only its release lets
+    the second one through.
+     */
+    @Test
+    void acquireAll() throws InterruptedException {
+        List<String> acquired = new CopyOnWriteArrayList<>();
+        ewoks.acquireEwok(2);
+
+        Thread big = new Thread(() -> {
+            ewoks.acquireAll(Arrays.asList(2, 1));
+            acquired.add("big");
+            ewoks.releaseAll(Arrays.asList(1, 2));
+        });
+        big.start();
+        awaitContended(1);
+
+        ewoks.acquireAll(Collections.singletonList(3));
+        ewoks.releaseAll(Collections.singletonList(3));
+
+        Thread small = new Thread(() -> {
+            ewoks.acquireAll(Collections.singletonList(1));
+            acquired.add("small");
+            ewoks.releaseAll(Collections.singletonList(1));
+        });
+        small.start();
+        awaitContended(2);
+        assertTrue(acquired.isEmpty());
+
+        ewoks.releaseEwok(2);
+        big.join(1000);
+        small.join(1000);
+        assertEquals(Arrays.asList("big", "small"), acquired);
+    }
+
+    /*
+    With a million Ewoks, an attack may need Ewoks from several words of the bitset. It either acquires
+    all of them, or none when one of them is taken. A view of an Ewok sees the same state.
+     */
+    @Test
+    void acquireAllAcrossWords() {
+        ewoks.clear();
+        ewoks.addEwoks(1000000);
+        List<Integer> attack = Arrays.asList(1, 64, 65, 999999, 1000000);
+        ewoks.acquireAll(attack);
+        for (int serial : attack) {
+            assertFalse(ewoks.isAvailable(serial));
+        }
+        assertTrue(ewoks.isAvailable(2));
+
+        Ewok view = ewoks.getEwok(65);
+        view.release();
+        assertTrue(ewoks.isAvailable(65));
+        view.acquire();
+        assertFalse(view.isAvailable());
+
+        ewoks.releaseAll(attack);
+        ewoks.acquireEwok(500000);
+        Thread other = new Thread(() -> ewoks.acquireAll(Arrays.asList(2, 500000)));
+        other.start();
+        awaitContended(1);
+        assertTrue(ewoks.isAvailable(2));
+        ewoks.releaseEwok(500000);
+        assertDoesNotThrow(() -> other.join(1000));
+        assertFalse(ewoks.isAvailable(2));
+    }
+
+    private void awaitContended(long requests) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (ewoks.getContendedAcquires() < requests && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(requests, ewoks.getContendedAcquires());
+    }
+}